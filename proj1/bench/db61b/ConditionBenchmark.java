@@ -0,0 +1,80 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of Condition.test over every row of a table, measuring
+ *  the cost of evaluating where clauses apart from the rest of a
+ *  select.
+ *  @author Chen Meng. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConditionBenchmark {
+
+    /** Number of rows in the table. */
+    @Param({ "10000", "1000000" })
+    public int rows;
+
+    /** Create the table and conditions. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Table table = TableGenerator.students("students", rows);
+        _it = table.tableIterator();
+        List<TableIterator> its = Arrays.asList(_it);
+        Column year = new Column(table, "YearEnter"),
+            major = new Column(table, "Major"),
+            sem = new Column(table, "SemEnter");
+        year.resolve(its);
+        major.resolve(its);
+        sem.resolve(its);
+        _equality = Arrays.asList(new Condition(major, "=", "Math"));
+        _conjunction = new ArrayList<>();
+        _conjunction.add(new Condition(year, ">=", "2005"));
+        _conjunction.add(new Condition(major, "!=", "EECS"));
+        _conjunction.add(new Condition(sem, "=", "F"));
+    }
+
+    /** One equality test per row. */
+    @Benchmark
+    public int equality() {
+        return countMatches(_equality);
+    }
+
+    /** Three tests, including a string comparison, per row. */
+    @Benchmark
+    public int conjunction() {
+        return countMatches(_conjunction);
+    }
+
+    /** Return the number of rows of the table satisfying CONDITIONS. */
+    private int countMatches(List<Condition> conditions) {
+        int n;
+        n = 0;
+        for (_it.reset(); _it.hasRow(); _it.next()) {
+            if (Condition.test(conditions)) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Iterator over the table. */
+    private TableIterator _it;
+    /** A single equality condition. */
+    private List<Condition> _equality;
+    /** Several conditions. */
+    private List<Condition> _conjunction;
+}
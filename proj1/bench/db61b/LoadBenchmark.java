@@ -0,0 +1,85 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Benchmarks of reading and writing tables in the .db and .dbc
+ *  formats.  Files are written in a temporary directory.
+ *  @author Chen Meng. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadBenchmark {
+
+    /** Number of rows in the table. */
+    @Param({ "10000", "100000", "1000000" })
+    public int rows;
+
+    /** Create the table and write it in both formats. */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        _dir = Files.createTempDirectory("db61b-bench").toFile();
+        _name = new File(_dir, "students").getPath();
+        _table = TableGenerator.students(_name, rows);
+        _table.writeTable(_name);
+        ColumnarFile.write(_table, _name);
+    }
+
+    /** Remove the files written. */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File f : _dir.listFiles()) {
+            f.delete();
+        }
+        _dir.delete();
+    }
+
+    /** Read the .db file. */
+    @Benchmark
+    public Table readTable() {
+        return Table.readTable(_name);
+    }
+
+    /** Write the .db file. */
+    @Benchmark
+    public void writeTable() {
+        _table.writeTable(_name + "-out");
+    }
+
+    /** Map the .dbc file and decode every column. */
+    @Benchmark
+    public int readColumnar() {
+        Table table = ColumnarFile.read(_name);
+        int sum = 0;
+        for (int c = 0; c < table.numColumns(); c += 1) {
+            sum += table.column(c).key(table.size() - 1);
+        }
+        return sum;
+    }
+
+    /** Write the .dbc file. */
+    @Benchmark
+    public void writeColumnar() {
+        ColumnarFile.write(_table, _name + "-out");
+    }
+
+    /** Directory holding the files. */
+    private File _dir;
+    /** Name of the table files, less extension. */
+    private String _name;
+    /** The table. */
+    private Table _table;
+}
@@ -0,0 +1,78 @@
+package db61b;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of select clauses, parsed and executed through
+ *  CommandInterpreter.selectClause.  Each benchmark counts the rows
+ *  produced, so no result Table is built.
+ *  @author Chen Meng. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SelectBenchmark {
+
+    /** Number of students; there are four times as many enrollments. */
+    @Param({ "10000", "100000", "1000000" })
+    public int rows;
+
+    /** Create the tables. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        _database = new HashMap<>();
+        _database.put("students", TableGenerator.students("students", rows));
+        _database.put("enrolled",
+                      TableGenerator.enrolled("enrolled", 4 * rows, rows));
+    }
+
+    /** A selective equality filter on one table. */
+    @Benchmark
+    public int equalityFilter() {
+        return count("select SID, Firstname from students"
+                     + " where Lastname = 'L17'");
+    }
+
+    /** A range filter with a second condition on one table. */
+    @Benchmark
+    public int rangeFilter() {
+        return count("select SID from students"
+                     + " where YearEnter >= '2015' and Major = 'Math'");
+    }
+
+    /** An equality join of two tables with a filter on one of them. */
+    @Benchmark
+    public int join() {
+        return count("select Firstname, Lastname, Grade from students, enrolled"
+                     + " where students.SID = enrolled.SID and Grade = 'A+'");
+    }
+
+    /** Return the number of rows selected by the select clause
+     *  SELECT. */
+    private int count(String select) {
+        CommandInterpreter interpreter =
+            new CommandInterpreter(_database, new StringReader(select), null);
+        Query query = interpreter.selectClause("");
+        int n;
+        n = 0;
+        query.open();
+        while (query.next() != null) {
+            n += 1;
+        }
+        query.close();
+        return n;
+    }
+
+    /** The tables selected from. */
+    private HashMap<String, Table> _database;
+}
@@ -0,0 +1,77 @@
+package db61b;
+
+import java.util.Random;
+
+/** Synthetic tables for benchmarks, shaped like the students and
+ *  enrolled tables of the project's tests.  Values are drawn from a
+ *  seeded Random, so a given size always produces the same table.
+ *  @author Chen Meng. */
+class TableGenerator {
+
+    /** Seed for all generated tables. */
+    private static final long SEED = 61;
+
+    /** Values of the Major column. */
+    private static final String[] MAJORS = {
+        "EECS", "Math", "LSUnd", "Physics", "English", "History",
+        "Chemistry", "Music",
+    };
+
+    /** Letter grades. */
+    private static final String[] GRADES = {
+        "A+", "A", "A-", "B+", "B", "B-", "C+", "C", "C-", "D", "F",
+    };
+
+    /** Number of distinct last and first names. */
+    private static final int NAMES = 1000;
+
+    /** Number of distinct course numbers (CCNs). */
+    private static final int COURSES = 2000;
+
+    /** Return a table named NAME with columns SID, Lastname, Firstname,
+     *  SemEnter, YearEnter, and Major, holding N students with distinct
+     *  SIDs. */
+    static Table students(String name, int n) {
+        Random rand = new Random(SEED);
+        Table table = new Table(name, new String[] {
+            "SID", "Lastname", "Firstname", "SemEnter", "YearEnter", "Major"
+        });
+        for (int i = 0; i < n; i += 1) {
+            table.add(new Row(new String[] {
+                sid(i),
+                "L" + rand.nextInt(NAMES),
+                "F" + rand.nextInt(NAMES),
+                rand.nextBoolean() ? "F" : "S",
+                Integer.toString(2000 + rand.nextInt(20)),
+                MAJORS[rand.nextInt(MAJORS.length)],
+            }));
+        }
+        return table;
+    }
+
+    /** Return a table named NAME with columns SID, CCN, and Grade,
+     *  holding about N enrollments of the first STUDENTS students (as
+     *  numbered by students()). */
+    static Table enrolled(String name, int n, int students) {
+        Random rand = new Random(SEED + 1);
+        Table table = new Table(name, new String[] { "SID", "CCN", "Grade" });
+        for (int i = 0; i < n; i += 1) {
+            table.add(new Row(new String[] {
+                sid(rand.nextInt(students)),
+                ccn(rand.nextInt(COURSES)),
+                GRADES[rand.nextInt(GRADES.length)],
+            }));
+        }
+        return table;
+    }
+
+    /** Return the SID of student number I. */
+    static String sid(int i) {
+        return Integer.toString(100000 + i);
+    }
+
+    /** Return the CCN of course number I. */
+    static String ccn(int i) {
+        return Integer.toString(20000 + i);
+    }
+}
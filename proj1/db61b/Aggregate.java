@@ -0,0 +1,204 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** An aggregate function of a column, such as sum(price), or count(*),
+ *  in a select clause.  Like a Literal, an Aggregate is a degenerate
+ *  Column: its values are not read from a table, but computed by an
+ *  AggregatePlan for each group of tuples.  The running values of all
+ *  groups are kept in arrays of primitives indexed by group number, so
+ *  that adding a tuple to its group allocates nothing.
+ *  @author Chen Meng. */
+class Aggregate extends Column {
+
+    /** The aggregate functions. */
+    enum Kind {
+        /** The number of tuples. */
+        COUNT,
+        /** The sum of a numeric column. */
+        SUM,
+        /** The least value of a column. */
+        MIN,
+        /** The greatest value of a column. */
+        MAX,
+        /** The mean of a numeric column. */
+        AVG
+    }
+
+    /** An Aggregate applying the function named FUNCTION (count, sum,
+     *  min, max, or avg) to the values of ARG, or counting tuples if ARG
+     *  is null, as for count(*).  It is named FUNCTION, followed by an
+     *  underscore and ARG's name if ARG is not null. */
+    Aggregate(String function, Column arg) {
+        super(null, arg == null ? function : function + "_" + arg.name());
+        Kind found = null;
+        for (Kind kind : Kind.values()) {
+            if (kind.toString().equalsIgnoreCase(function)) {
+                found = kind;
+            }
+        }
+        if (found == null) {
+            throw error("unknown function: %s", function);
+        }
+        _kind = found;
+        if (arg == null && _kind != Kind.COUNT) {
+            throw error("%s requires a column", function);
+        }
+        _arg = arg;
+    }
+
+    @Override
+    void resolve(List<TableIterator> iterators) {
+        if (_arg == null) {
+            return;
+        }
+        _arg.resolve(iterators);
+        if ((_kind == Kind.SUM || _kind == Kind.AVG)
+            && !_arg.type().isNumeric()) {
+            throw error("%s is not numeric", _arg.name());
+        }
+        _integral = _arg.type().isIntegral();
+    }
+
+    @Override
+    Type type() {
+        switch (_kind) {
+        case COUNT:
+            return Type.LONG;
+        case SUM:
+            return _integral ? Type.LONG : Type.DOUBLE;
+        case AVG:
+            return Type.DOUBLE;
+        default:
+            return _arg.type();
+        }
+    }
+
+    /** Return the approximate number of bytes of running values I keep
+     *  per group. */
+    int bytesPerGroup() {
+        return _kind == Kind.AVG ? 16 : 8;
+    }
+
+    /** Discard the running values of all groups. */
+    void reset() {
+        _longs = null;
+        _doubles = null;
+    }
+
+    /** Start group number G, which must be one more than the last group
+     *  started since reset(), with the current tuple. */
+    void start(int g) {
+        if (_longs == null) {
+            _longs = new long[INITIAL_CAPACITY];
+            _doubles = usesDoubles() ? new double[INITIAL_CAPACITY] : null;
+        } else if (g == _longs.length) {
+            _longs = Arrays.copyOf(_longs, 2 * g);
+            if (_doubles != null) {
+                _doubles = Arrays.copyOf(_doubles, 2 * g);
+            }
+        }
+        ColumnVector vector = vector();
+        switch (_kind) {
+        case COUNT:
+            _longs[g] = 1;
+            break;
+        case SUM:
+            if (_integral) {
+                _longs[g] = vector.longValue(_arg.source().row());
+            } else {
+                _doubles[g] = vector.doubleValue(_arg.source().row());
+            }
+            break;
+        case AVG:
+            _longs[g] = 1;
+            _doubles[g] = vector.doubleValue(_arg.source().row());
+            break;
+        default:
+            _longs[g] = _arg.key();
+            break;
+        }
+    }
+
+    /** Add the current tuple to group number G. */
+    void add(int g) {
+        ColumnVector vector = vector();
+        switch (_kind) {
+        case COUNT:
+            _longs[g] += 1;
+            break;
+        case SUM:
+            if (_integral) {
+                _longs[g] += vector.longValue(_arg.source().row());
+            } else {
+                _doubles[g] += vector.doubleValue(_arg.source().row());
+            }
+            break;
+        case AVG:
+            _longs[g] += 1;
+            _doubles[g] += vector.doubleValue(_arg.source().row());
+            break;
+        case MIN: {
+            long key = _arg.key();
+            if (vector.compareKeys(key, _longs[g]) < 0) {
+                _longs[g] = key;
+            }
+            break;
+        }
+        default: {
+            long key = _arg.key();
+            if (vector.compareKeys(key, _longs[g]) > 0) {
+                _longs[g] = key;
+            }
+            break;
+        }
+        }
+    }
+
+    /** Return the key (as defined by ColumnVector) of my value for group
+     *  number G, a value of my type(). */
+    long result(int g) {
+        switch (_kind) {
+        case SUM:
+            if (_integral) {
+                return _longs[g];
+            }
+            return Double.doubleToLongBits(_doubles[g] + 0.0);
+        case AVG:
+            return Double.doubleToLongBits(_doubles[g] / _longs[g] + 0.0);
+        default:
+            return _longs[g];
+        }
+    }
+
+    /** Return the storage of _arg's column in the current snapshot of
+     *  its source, or null for count(*).  It is fetched anew for each
+     *  tuple, since a Table that is cleared replaces its columns. */
+    private ColumnVector vector() {
+        return _arg == null ? null : _arg.source().column(_arg.index());
+    }
+
+    /** Return true iff I keep a running double for each group. */
+    private boolean usesDoubles() {
+        return _kind == Kind.AVG || (_kind == Kind.SUM && !_integral);
+    }
+
+    /** Initial number of groups for which I have room. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** My function. */
+    private final Kind _kind;
+    /** The column whose values I aggregate, or null for count(*). */
+    private final Column _arg;
+    /** True iff _arg holds integers. */
+    private boolean _integral;
+    /** The running count, integral sum, or key of the extreme value of
+     *  each group, by group number. */
+    private long[] _longs;
+    /** The running sum of each group, by group number, when it is not
+     *  integral. */
+    private double[] _doubles;
+}
@@ -0,0 +1,323 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** A Plan that groups the tuples of another Plan by the values of some
+ *  of its Columns, as in a group by clause, and produces one row per
+ *  group.  The row holds the selected values: grouping Columns and
+ *  Aggregates computed over the group.  With no grouping Columns, all
+ *  tuples form one group (and no tuples, no groups).  My rows are
+ *  computed once and stored in a result Table, on whose rows my single
+ *  TableIterator is positioned.  Like a stored table, it outlives
+ *  close(), so that Plans above me, such as a SortPlan, may save my
+ *  tuples and restore them later.
+ *
+ *  The first time it is asked for a row, it reads its input once,
+ *  finding the group of each tuple in an open-addressing hash table
+ *  keyed on the keys of the grouping values, and adds the tuple to each
+ *  Aggregate's running values for that group.  If there are so many
+ *  groups that these would exceed the memory budget (see
+ *  SpillFile.budget), I start over, reading my input through a
+ *  SortPlan on the grouping Columns, and aggregate each run of tuples
+ *  in the same group as it passes, so that only one group is kept.
+ *  @author Chen Meng. */
+class AggregatePlan extends Plan {
+
+    /** A Plan producing, for each group of the tuples of CHILD having
+     *  equal values of GROUPBY, the values of SELECTED.  The Columns in
+     *  GROUPBY and those in SELECTED must be resolved against CHILD's
+     *  iterators, and each of SELECTED must be an Aggregate or denote
+     *  the same column as one of GROUPBY. */
+    AggregatePlan(Plan child, List<Column> groupBy, List<Column> selected) {
+        super(Arrays.asList(result(selected).tableIterator()));
+        _it = iterators().get(0);
+        _result = _it.table();
+        _child = child;
+        _groupBy = groupBy.toArray(new Column[groupBy.size()]);
+        _selected = selected.toArray(new Column[selected.size()]);
+        _aggregates = new Aggregate[_selected.length];
+        _sources = new int[_selected.length];
+        for (int c = 0; c < _selected.length; c += 1) {
+            Column col = _selected[c];
+            _sources[c] = -1;
+            if (col instanceof Aggregate) {
+                _aggregates[c] = (Aggregate) col;
+                continue;
+            }
+            for (int j = 0; j < _groupBy.length; j += 1) {
+                if (_groupBy[j].sameAs(col)) {
+                    _sources[c] = j;
+                }
+            }
+            if (_sources[c] == -1) {
+                throw error("%s is not grouped", col.name());
+            }
+        }
+    }
+
+    /** Return a new, empty Table whose columns have the names and Types
+     *  of SELECTED. */
+    private static Table result(List<Column> selected) {
+        String[] titles = new String[selected.size()];
+        Type[] types = new Type[titles.length];
+        for (int c = 0; c < titles.length; c += 1) {
+            titles[c] = selected.get(c).name();
+            types[c] = selected.get(c).type();
+        }
+        return new Table("<groups>", titles, types);
+    }
+
+    /** Return the Columns of my rows, resolved against my iterator, in
+     *  the order of the selected Columns. */
+    List<Column> columns() {
+        Column[] columns = new Column[_selected.length];
+        for (int c = 0; c < columns.length; c += 1) {
+            columns[c] = new Column(_result, _result.title(c));
+            columns[c].resolve(iterators());
+        }
+        return Arrays.asList(columns);
+    }
+
+    @Override
+    void open() {
+        _row = 0;
+    }
+
+    @Override
+    void close() {
+        _child.close();
+    }
+
+    @Override
+    boolean next() {
+        if (!_computed) {
+            if (!hashAggregate()) {
+                sortAggregate();
+            }
+            _it.snapshot();
+            _computed = true;
+        }
+        if (_row == _result.size()) {
+            return false;
+        }
+        _it.setRow(_row);
+        _row += 1;
+        return true;
+    }
+
+    @Override
+    double estimate() {
+        return _groupBy.length == 0 ? 1 : _child.estimate();
+    }
+
+    /** Add a row for each group of the tuples of _child to _result,
+     *  using a hash table of groups.  Return false, having added nothing,
+     *  if the groups outgrow the memory budget. */
+    private boolean hashAggregate() {
+        int k = _groupBy.length;
+        int groupBytes = 8 * k + SLOT_BYTES;
+        for (Aggregate agg : _aggregates) {
+            groupBytes += agg == null ? 0 : agg.bytesPerGroup();
+        }
+        long limit = SpillFile.budget() / groupBytes;
+        _keys = new long[INITIAL_GROUPS * Math.max(1, k)];
+        _hashes = new int[INITIAL_GROUPS];
+        _slots = new int[2 * INITIAL_GROUPS];
+        _groups = 0;
+        resetAggregates();
+        long[] keys = new long[k];
+        boolean fits;
+        fits = true;
+        _child.open();
+        while (fits && _child.next()) {
+            for (int j = 0; j < k; j += 1) {
+                keys[j] = _groupBy[j].key();
+            }
+            int g = group(keys);
+            if (g >= 0) {
+                addToGroup(g);
+            } else {
+                startGroup(~g);
+                fits = _groups <= limit;
+            }
+        }
+        _child.close();
+        if (fits) {
+            for (int g = 0; g < _groups; g += 1) {
+                emit(g, _keys, g * k);
+            }
+        }
+        _keys = null;
+        _hashes = _slots = null;
+        resetAggregates();
+        return fits;
+    }
+
+    /** Add a row for each group of the tuples of _child to _result,
+     *  reading them in order of their grouping values. */
+    private void sortAggregate() {
+        int k = _groupBy.length;
+        Plan sorted = new SortPlan(_child,
+                                   new Ordering(Arrays.asList(_groupBy),
+                                                new boolean[k]));
+        long[] last = new long[k], keys = new long[k];
+        boolean started;
+        started = false;
+        sorted.open();
+        while (sorted.next()) {
+            for (int j = 0; j < k; j += 1) {
+                keys[j] = _groupBy[j].key();
+            }
+            if (started && Arrays.equals(keys, last)) {
+                addToGroup(0);
+            } else {
+                if (started) {
+                    emit(0, last, 0);
+                }
+                startGroup(0);
+                long[] tmp = last;
+                last = keys;
+                keys = tmp;
+                started = true;
+            }
+        }
+        sorted.close();
+        if (started) {
+            emit(0, last, 0);
+        }
+        resetAggregates();
+    }
+
+    /** Return the number of the group whose grouping keys are KEYS, if
+     *  there is one.  Otherwise, add a group for KEYS, and return the
+     *  complement (~) of its number. */
+    private int group(long[] keys) {
+        int k = keys.length;
+        int hash = Arrays.hashCode(keys);
+        int mask = _slots.length - 1;
+        int s;
+        for (s = hash & mask; _slots[s] != 0; s = (s + 1) & mask) {
+            int g = _slots[s] - 1;
+            if (_hashes[g] == hash && sameKeys(g, keys)) {
+                return g;
+            }
+        }
+        int g = _groups;
+        if (g == _hashes.length) {
+            _hashes = Arrays.copyOf(_hashes, 2 * g);
+            _keys = Arrays.copyOf(_keys, 2 * g * Math.max(1, k));
+        }
+        _hashes[g] = hash;
+        System.arraycopy(keys, 0, _keys, g * k, k);
+        _groups += 1;
+        _slots[s] = _groups;
+        if (2 * _groups > _slots.length) {
+            rehash(2 * _slots.length);
+        }
+        return ~g;
+    }
+
+    /** Return true iff group number G has the grouping keys KEYS. */
+    private boolean sameKeys(int g, long[] keys) {
+        for (int j = 0, i = g * keys.length; j < keys.length; j += 1) {
+            if (_keys[i + j] != keys[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Replace _slots with an array of N slots, reinserting all
+     *  groups. */
+    private void rehash(int n) {
+        _slots = new int[n];
+        int mask = _slots.length - 1;
+        for (int g = 0; g < _groups; g += 1) {
+            int s;
+            for (s = _hashes[g] & mask; _slots[s] != 0; s = (s + 1) & mask) {
+                continue;
+            }
+            _slots[s] = g + 1;
+        }
+    }
+
+    /** Start group number G of each Aggregate with the current tuple. */
+    private void startGroup(int g) {
+        for (Aggregate agg : _aggregates) {
+            if (agg != null) {
+                agg.start(g);
+            }
+        }
+    }
+
+    /** Add the current tuple to group number G of each Aggregate. */
+    private void addToGroup(int g) {
+        for (Aggregate agg : _aggregates) {
+            if (agg != null) {
+                agg.add(g);
+            }
+        }
+    }
+
+    /** Discard the running values of all Aggregates. */
+    private void resetAggregates() {
+        for (Aggregate agg : _aggregates) {
+            if (agg != null) {
+                agg.reset();
+            }
+        }
+    }
+
+    /** Add the row for group number G, whose grouping keys start at
+     *  index I of KEYS, to _result. */
+    private void emit(int g, long[] keys, int i) {
+        long[] row = new long[_selected.length];
+        for (int c = 0; c < row.length; c += 1) {
+            if (_aggregates[c] != null) {
+                row[c] = _aggregates[c].result(g);
+            } else {
+                row[c] = keys[i + _sources[c]];
+            }
+        }
+        _result.add(row);
+    }
+
+    /** Initial number of groups for which there is room. */
+    private static final int INITIAL_GROUPS = 16;
+    /** Approximate bytes used per group by the hash table. */
+    private static final int SLOT_BYTES = 12;
+
+    /** The source of my tuples. */
+    private final Plan _child;
+    /** The Columns whose values define the groups. */
+    private final Column[] _groupBy;
+    /** The selected Columns. */
+    private final Column[] _selected;
+    /** _aggregates[C] is _selected[C] if it is an Aggregate, and
+     *  otherwise null. */
+    private final Aggregate[] _aggregates;
+    /** _sources[C] is the number of the grouping Column that is
+     *  _selected[C], or -1 if it is an Aggregate. */
+    private final int[] _sources;
+    /** The table of my rows. */
+    private final Table _result;
+    /** My iterator, over _result. */
+    private final TableIterator _it;
+    /** True iff _result holds my rows. */
+    private boolean _computed;
+    /** The number of my next row in _result. */
+    private int _row;
+    /** Number of groups in the hash table. */
+    private int _groups;
+    /** The grouping keys of the groups in the hash table, those of each
+     *  group being consecutive. */
+    private long[] _keys;
+    /** The hash code of each group's grouping keys, by group number. */
+    private int[] _hashes;
+    /** Open-addressing hash table of groups, as for Table: each non-zero
+     *  entry is one more than the number of a group. */
+    private int[] _slots;
+}
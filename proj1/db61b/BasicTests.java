@@ -1,7 +1,36 @@
 package db61b;
-import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntToLongFunction;
+
+import org.junit.Test;
+
 import static org.junit.Assert.*;
+
 /** Test basic functionalities":
 * 1. The Table class
 * 2. The Conditions
@@ -35,6 +64,71 @@ public class BasicTests {
         assertEquals(false, b);
     }
 
+    @Test
+    public void testTableManyRows() {
+        Table t = new Table("Test", new String[]{"a", "b"});
+        for (int i = 0; i < 1000; i += 1) {
+            assertTrue(t.add(new Row(new String[]{"" + i, "" + i % 7})));
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            assertFalse(t.add(new Row(new String[]{"" + i, "" + i % 7})));
+        }
+        assertEquals(1000, t.size());
+        assertEquals("500", t.get(500, 0));
+        assertEquals("3", t.get(500, 1));
+        assertEquals(new Row(new String[]{"999", "5"}), t.row(999));
+    }
+
+    @Test
+    public void testDictionaryCodes() {
+        Table t1 = new Table("T1", new String[]{"a", "b"});
+        Table t2 = new Table("T2", new String[]{"c"});
+        t1.add(new Row(new String[]{"EECS", "Math"}));
+        t1.add(new Row(new String[]{"Math", "EECS"}));
+        t2.add(new Row(new String[]{new String("Math")}));
+        assertEquals(t1.column(1).key(0), t1.column(0).key(1));
+        assertEquals(t1.column(0).key(1), t2.column(0).key(0));
+        assertFalse(t1.column(0).key(0) == t1.column(0).key(1));
+        assertEquals("Math", t2.get(0, 0));
+    }
+
+    @Test
+    public void testLiteralsNotPooled() {
+        Table t = new Table("T", new String[]{"s"});
+        t.add(new Row(new String[]{"here"}));
+        TableIterator it = t.tableIterator();
+        Column s = new Column(t, "s");
+        s.resolve(Arrays.asList(it));
+        int size = StringPool.size();
+        String absent = "absent" + System.nanoTime();
+        assertFalse(new Condition(s, "=", absent).test());
+        assertTrue(new Condition(s, "!=", absent).test());
+        assertEquals(0, new Condition(s, "=", absent).kernel()
+                     .filter(new int[]{0}, 1));
+        assertEquals(1, new Condition(s, "!=", absent).kernel()
+                     .filter(new int[]{0}, 1));
+        assertTrue(new Condition(s, ">", absent).test());
+        assertEquals(size, StringPool.size());
+        assertEquals(-1, StringPool.find(absent));
+        assertEquals(StringPool.code("here"), StringPool.find("here"));
+    }
+
+    @Test
+    public void testIndexFind() {
+        Table t = new Table("T", new String[]{"s"});
+        t.add(new Row(new String[]{"b"}));
+        t.add(new Row(new String[]{"a"}));
+        Index index = t.createIndex(0);
+        int size = StringPool.size();
+        String absent = "absent" + System.nanoTime();
+        assertEquals(0, index.find(Condition.EQ, absent, 2).length);
+        assertNull(index.find(Condition.LT, absent, 2));
+        assertEquals(size, StringPool.size());
+        assertArrayEquals(new int[]{1}, index.find(Condition.EQ, "a", 2));
+        assertArrayEquals(new int[]{1, 0},
+                          index.find(Condition.GT | Condition.EQ, "a", 2));
+    }
+
     @Test
     public void testTablePrint() {
         Table t = new Table("Test",
@@ -99,6 +193,858 @@ public class BasicTests {
         assertFalse(c.test());
     }
 
+    @Test
+    public void testCompiledConditions() {
+        Table t = new Table("Test", new String[]{"i", "s"},
+            new Type[]{Type.INT, Type.STRING});
+        for (int k = 0; k < 20; k += 1) {
+            t.add(new Row(new String[]{"" + (k - 10), "s" + k % 7}));
+        }
+        TableIterator it = t.tableIterator();
+        Column i = new Column(t, "i"), s = new Column(t, "s");
+        i.resolve(Arrays.asList(it));
+        s.resolve(Arrays.asList(it));
+        String[] rels = {"<", "<=", "=", "!=", ">=", ">"};
+        for (String rel : rels) {
+            List<Condition> both = Arrays.asList(
+                new Condition(i, rel, "-3"), new Condition(s, rel, "s4"));
+            BooleanSupplier test =
+                Condition.compile(both);
+            for (int r = 0; r < t.size(); r += 1) {
+                it.setRow(r);
+                int byNumber = Integer.compare(Integer.parseInt(
+                    t.get(r, 0)), -3);
+                int byString = t.get(r, 1).compareTo("s4");
+                boolean expected = holds(rel, byNumber)
+                    && holds(rel, byString);
+                assertEquals(expected, test.getAsBoolean());
+                assertEquals(holds(rel, byString),
+                             both.get(1).compile().getAsBoolean());
+            }
+        }
+    }
+
+    /** Return true iff a comparison yielding COMPARISON (as by
+     *  compareTo) satisfies the relation REL. */
+    private static boolean holds(String rel, int comparison) {
+        switch (rel) {
+        case "<":
+            return comparison < 0;
+        case "<=":
+            return comparison <= 0;
+        case "=":
+            return comparison == 0;
+        case "!=":
+            return comparison != 0;
+        case ">=":
+            return comparison >= 0;
+        default:
+            return comparison > 0;
+        }
+    }
+
+    @Test
+    public void testQueryStreams() {
+        Table t = new Table("T", new String[]{"n", "s"},
+            new Type[]{Type.INT, Type.STRING});
+        for (int k = 0; k < 1000; k += 1) {
+            t.add(new Row(new String[]{"" + k, "s" + k % 10}));
+        }
+        TableIterator it = t.tableIterator();
+        Column n = new Column(t, "n"), s = new Column(t, "s");
+        n.resolve(Arrays.asList(it));
+        s.resolve(Arrays.asList(it));
+        int[] calls = new int[1];
+        Plan scan = new ScanPlan(it) {
+            @Override
+            boolean next() {
+                calls[0] += 1;
+                return super.next();
+            }
+        };
+        Query all = new Query("", Arrays.asList(n, s), scan);
+        assertFalse(all.remembersRows());
+        all.open();
+        assertEquals(new Row(new String[]{"0", "s0"}), all.next());
+        assertEquals(1, calls[0]);
+        all.close();
+        Query some = new Query("", Arrays.asList(s), new ScanPlan(it));
+        assertTrue(some.remembersRows());
+        for (int pass = 0; pass < 2; pass += 1) {
+            int rows = 0;
+            some.open();
+            while (some.next() != null) {
+                rows += 1;
+            }
+            some.close();
+            assertEquals(10, rows);
+        }
+    }
+
+    @Test
+    public void testBatchFilters() {
+        Table t = new Table("Test", new String[]{"i", "d", "s"},
+            new Type[]{Type.INT, Type.DOUBLE, Type.STRING});
+        for (int k = -5; k <= 5; k += 1) {
+            t.add(new Row(new String[]{"" + k, "" + (k / 2.0), "s" + k}));
+        }
+        t.add(new Row(new String[]{"6", "NaN", "s6"}));
+        TableIterator it = t.tableIterator();
+        ArrayList<TableIterator> tables = new ArrayList<TableIterator>();
+        tables.add(it);
+        String[] rels = {"<", "<=", "=", "!=", ">=", ">"};
+        String[][] tests = {{"i", "2"}, {"i", "-1.5"}, {"d", "1"},
+                            {"d", "-0"}, {"s", "s3"}, {"s", "s-2"}};
+        for (String[] test : tests) {
+            for (String rel : rels) {
+                Column col = new Column(t, test[0]);
+                col.resolve(tables);
+                Condition c = new Condition(col, rel, test[1]);
+                int[] sel = new int[t.size()];
+                for (int r = 0; r < sel.length; r += 1) {
+                    sel[r] = r;
+                }
+                int n = c.compileBatch().filter(sel, sel.length);
+                int m = 0;
+                for (int r = 0; r < t.size(); r += 1) {
+                    it.setRow(r);
+                    if (c.test()) {
+                        assertEquals(r, sel[m]);
+                        m += 1;
+                    }
+                }
+                assertEquals(m, n);
+            }
+        }
+    }
+
+    @Test
+    public void testMorselScan() {
+        Table t = new Table("Test", new String[]{"i", "j"},
+            new Type[]{Type.INT, Type.LONG});
+        int size = 2 * MorselScan.MIN_PARALLEL_ROWS + 7;
+        for (int k = 0; k < size; k += 1) {
+            t.add(new long[]{k, k % 7});
+        }
+        TableIterator it = t.tableIterator();
+        ArrayList<TableIterator> tables = new ArrayList<TableIterator>();
+        tables.add(it);
+        Column i = new Column(t, "i"), j = new Column(t, "j");
+        i.resolve(tables);
+        j.resolve(tables);
+        BatchFilter[] kernels = {
+            new Condition(i, ">=", "1000").kernel(),
+            new Condition(j, "!=", "3").kernel()
+        };
+        int[] rows = MorselScan.select(null, size, kernels,
+            new ForkJoinPool(4));
+        int n = 0;
+        for (int k = 1000; k < size; k += 1) {
+            if (k % 7 != 3) {
+                assertEquals(k, rows[n]);
+                n += 1;
+            }
+        }
+        assertEquals(n, rows.length);
+    }
+
+    /** Two tables, A (x int, k int) and B (y int, k), to be joined on
+     *  their k columns, with iterators over them against which the k
+     *  columns are resolved. */
+    private static class JoinInputs {
+
+        /** Tables whose rows I are (I, AKEY(I)) in A and (I, BKEY(I)) in
+         *  B, for 0 <= I < N, where B's k column holds values of
+         *  BTYPE. */
+        JoinInputs(int n, IntToLongFunction aKey, IntToLongFunction bKey,
+                   Type bType) {
+            a = new Table("A", new String[]{"x", "k"},
+                          new Type[]{Type.INT, Type.INT});
+            b = new Table("B", new String[]{"y", "k"},
+                          new Type[]{Type.INT, bType});
+            for (int i = 0; i < n; i += 1) {
+                a.add(new long[]{i, aKey.applyAsLong(i)});
+                b.add(new long[]{i, bKey.applyAsLong(i)});
+            }
+            ia = a.tableIterator();
+            ib = b.tableIterator();
+            ka = new Column(a, "k");
+            kb = new Column(b, "k");
+            ka.resolve(Arrays.asList(ia, ib));
+            kb.resolve(Arrays.asList(ia, ib));
+        }
+
+        /** Return a HashJoinPlan of scans of A and B. */
+        Plan hashJoin() {
+            return new HashJoinPlan(new ScanPlan(ia), new ScanPlan(ib),
+                                    ka, kb);
+        }
+
+        /** Return the pairs of rows of A and B that PLAN, a join of them,
+         *  produces, each as A's row number times 2**32 plus B's,
+         *  checking that each pair agrees on k and appears once. */
+        Set<Long> pairs(Plan plan) {
+            HashSet<Long> result = new HashSet<>();
+            plan.open();
+            while (plan.next()) {
+                assertEquals(ka.key(), kb.key());
+                assertTrue(result.add(pair()));
+            }
+            plan.close();
+            return result;
+        }
+
+        /** Return the current pair of rows of A and B, as for pairs. */
+        long pair() {
+            return (long) ia.row() << 32 | ib.row();
+        }
+
+        /** The tables. */
+        final Table a, b;
+        /** Iterators over a and b. */
+        final TableIterator ia, ib;
+        /** The k columns of a and b. */
+        final Column ka, kb;
+    }
+
+    @Test
+    public void testHashJoin() {
+        JoinInputs in = new JoinInputs(2000, i -> i % 300,
+                                       i -> i % 450 + 100, Type.INT);
+        HashSet<Long> expected = new HashSet<>();
+        for (int r = 0; r < in.a.size(); r += 1) {
+            for (int q = 0; q < in.b.size(); q += 1) {
+                if (in.a.column(1).key(r) == in.b.column(1).key(q)) {
+                    expected.add((long) r << 32 | q);
+                }
+            }
+        }
+        assertEquals(expected, in.pairs(in.hashJoin()));
+    }
+
+    @Test
+    public void testRadixJoin() {
+        JoinInputs in = new JoinInputs(20000, i -> i % 5000,
+                                       i -> i % 7000 + 1000, Type.LONG);
+        Plan radix = new RadixJoinPlan(new ScanPlan(in.ia),
+            new ScanPlan(in.ib), in.ka, in.kb, new ForkJoinPool(4));
+        assertEquals(in.pairs(in.hashJoin()), in.pairs(radix));
+        JoinInputs skewed =
+            new JoinInputs(1200, i -> i % 3, i -> i % 4, Type.INT);
+        radix = new RadixJoinPlan(new ScanPlan(skewed.ia),
+            new ScanPlan(skewed.ib), skewed.ka, skewed.kb,
+            new ForkJoinPool(4));
+        Set<Long> expected = skewed.pairs(skewed.hashJoin());
+        assertTrue(expected.size() > 4 * RadixJoinPlan.CHUNK_PAIRS);
+        radix.open();
+        radix.next();
+        assertEquals(expected, skewed.pairs(radix));
+    }
+
+    @Test
+    public void testOrderBy() {
+        HashMap<String, Table> db =
+            new HashMap<String, Table>();
+        Table t = new Table("T", new String[]{"n", "s"},
+            new Type[]{Type.INT, Type.STRING});
+        String[] names = {"b", "a", "c"};
+        for (int i = 0; i < 30; i += 1) {
+            t.add(new Row(new String[]{"" + (i * 7 % 10), names[i % 3]}));
+        }
+        db.put("T", t);
+        CommandInterpreter interpreter = new CommandInterpreter(db,
+            new StringReader("select n, s from T order by s desc, n"),
+            null);
+        Query query = interpreter.selectClause("");
+        query.open();
+        Row last = query.next();
+        int n = 1;
+        for (Row r = query.next(); r != null; r = query.next()) {
+            int cmp = last.get(1).compareTo(r.get(1));
+            assertTrue(cmp > 0 || (cmp == 0 && Integer.parseInt(last.get(0))
+                                   < Integer.parseInt(r.get(0))));
+            last = r;
+            n += 1;
+        }
+        query.close();
+        assertEquals(t.size(), n);
+    }
+
+    @Test
+    public void testMaterializedView() {
+        HashMap<String, Table> db =
+            new HashMap<String, Table>();
+        StringBuilder script = new StringBuilder();
+        script.append("create table A (x int, k int);"
+                      + "create table B (k int, y int);"
+                      + "create materialized view V as select x, y from A, B"
+                      + " where A.k = B.k and y > '10';");
+        for (int i = 0; i < 200; i += 1) {
+            script.append(String.format("insert into %s values '%d', '%d';",
+                                        i % 2 == 0 ? "A" : "B",
+                                        i * 13 % 41, i * 7 % 29));
+        }
+        CommandInterpreter interpreter = new CommandInterpreter(db,
+            new StringReader(script.toString()), null);
+        while (interpreter.statement()) {
+            continue;
+        }
+        Table view = db.get("V");
+        Table fresh = new Table("W", new CommandInterpreter(db,
+            new StringReader("select x, y from A, B"
+                                  + " where A.k = B.k and y > '10'"), null)
+            .selectClause("W"));
+        assertTrue(fresh.size() > 0);
+        assertEquals(fresh.size(), view.size());
+        for (int r = 0; r < fresh.size(); r += 1) {
+            assertFalse(view.add(new Row(new String[]{fresh.get(r, 0),
+                                                      fresh.get(r, 1)})));
+        }
+    }
+
+    @Test
+    public void testResultCache() {
+        HashMap<String, Table> db =
+            new HashMap<String, Table>();
+        Table t = new Table("T", new String[]{"n"});
+        Table u = new Table("U", new String[]{"n"});
+        db.put("T", t);
+        db.put("U", u);
+        Table result = new Table("", new String[]{"n"});
+        result.add(new Row(new String[]{"1"}));
+        long bytes = ResultCache.bytes(result);
+        ResultCache cache = new ResultCache(2 * bytes);
+        cache.put("a", result, Arrays.asList(t.tableIterator()));
+        cache.put("b", result, Arrays.asList(u.tableIterator()));
+        assertSame(result, cache.get("a", db));
+        cache.put("c", result,
+                  Arrays.asList(t.tableIterator(), u.tableIterator()));
+        assertSame(result, cache.get("a", db));
+        assertNull(cache.get("b", db));
+        assertSame(result, cache.get("c", db));
+        u.add(new Row(new String[]{"2"}));
+        assertNull(cache.get("c", db));
+        assertSame(result, cache.get("a", db));
+        cache.invalidate(t);
+        assertNull(cache.get("a", db));
+        assertEquals(0, new ResultCache().capacity());
+    }
+
+    @Test
+    public void testCachedSelect() {
+        HashMap<String, Table> db =
+            new HashMap<String, Table>();
+        Table t = new Table("T", new String[]{"a"});
+        t.add(new Row(new String[]{"x"}));
+        db.put("T", t);
+        ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        ResultCache cache = new ResultCache(1 << 20);
+        CommandInterpreter interpreter =
+            new CommandInterpreter(db, cache, null,
+                new StringReader("select * from T where a = 'abc\n;"
+                    + "select a from T where a = 'abc\n;"
+                    + "select a from T; select a from T;"),
+                null, out);
+        Main.run(interpreter, out);
+        out.flush();
+        assertEquals("Error: unexpected token: '*'\n"
+                     + "Error: unterminated literal constant\n"
+                     + "Search results:\n  x\n"
+                     + "Search results:\n  x\n",
+                     bytes.toString().replace("\r", ""));
+        assertNotNull(cache.get("select a from T ;", db));
+    }
+
+    @Test
+    public void testWriteAheadLog() throws IOException {
+        File file = File.createTempFile("db61b", ".log");
+        HashMap<String, Table> db =
+            new HashMap<String, Table>();
+        Log log = new Log(file.getPath());
+        CommandInterpreter interpreter =
+            new CommandInterpreter(db, new ResultCache(), log,
+                new StringReader("create table WalTest (n);"
+                    + "insert into WalTest values '1';"
+                    + "insert into WalTest values '2';"
+                    + "insert into WalTest values ('3'), ('3'); quit;"),
+                null, System.out);
+        while (interpreter.statement()) {
+            continue;
+        }
+        long length = file.length();
+        interpreter =
+            new CommandInterpreter(db, new ResultCache(), log,
+                new StringReader(
+                    "insert into WalTest values ('1'), ('3');"),
+                null, System.out);
+        interpreter.statement();
+        assertEquals(length, file.length());
+        log.close();
+        assertEquals(0, ColumnarFile.read("WalTest").size());
+        try (FileOutputStream torn =
+             new FileOutputStream(file, true)) {
+            torn.write(new byte[]{0, 0, 0, 40, 1, 2});
+        }
+        log = new Log(file.getPath());
+        db.clear();
+        interpreter = new CommandInterpreter(
+            db, new ResultCache(), log,
+            new StringReader("load WalTest;"), null, System.out);
+        interpreter.statement();
+        assertEquals(3, db.get("WalTest").size());
+        assertEquals(3, ColumnarFile.read("WalTest").size());
+        log.checkpoint(db);
+        assertEquals(0, file.length());
+        log.commit(log.inserted(db.get("WalTest"), new String[]{"4"}));
+        log.checkpoint(new HashMap<String, Table>());
+        assertEquals(0, file.length());
+        log.close();
+        new File(ColumnarFile.fileName("WalTest")).delete();
+        file.delete();
+    }
+
+    @Test
+    public void testFailedLogWrite() throws IOException {
+        File file = File.createTempFile("db61b", ".log");
+        FailingChannel channel = new FailingChannel(FileChannel.open(
+            file.toPath(), StandardOpenOption.READ,
+            StandardOpenOption.WRITE));
+        Log log = new Log(file.getPath(), channel);
+        Table t = new Table("WalFail", new String[]{"n"});
+        log.commit(log.inserted(t, new String[]{"1"}));
+        long length = file.length();
+        channel.fail = true;
+        try {
+            log.commit(log.inserted(t, new String[]{"2"}));
+            fail();
+        } catch (DBException e) {
+            assertEquals(length, file.length());
+        }
+        channel.fail = false;
+        assertTrue(log.needsCheckpoint());
+        try {
+            log.commit(log.inserted(t, new String[]{"3"}));
+            fail();
+        } catch (DBException e) {
+            assertEquals(length, file.length());
+        }
+        log.checkpoint(new HashMap<String, Table>());
+        assertFalse(log.needsCheckpoint());
+        log.commit(log.inserted(t, new String[]{"4"}));
+        length = file.length();
+        log.close();
+        log = new Log(file.getPath());
+        assertEquals(length, file.length());
+        log.close();
+        file.delete();
+    }
+
+    /** A FileChannel that writes part of what it is asked to, and then
+     *  fails, while FAIL is set, and is otherwise another FileChannel. */
+    private static class FailingChannel extends FileChannel {
+
+        /** A channel writing to CHANNEL. */
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length)
+            throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (fail) {
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + part.remaining() / 2);
+                channel.write(part);
+                throw new IOException("disk full");
+            }
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count,
+                               WritableByteChannel target)
+            throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position,
+                                 long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position)
+            throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size)
+            throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared)
+            throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared)
+            throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+
+        /** The channel I write to. */
+        private final FileChannel channel;
+        /** True iff writes fail. */
+        private boolean fail;
+    }
+
+    @Test
+    public void testAddAll() {
+        Table t = new Table("T", new String[]{"a", "b"},
+            new Type[]{Type.INT, Type.INT});
+        t.add(new long[]{0, 0});
+        long[] keys = new long[2 * 1000];
+        for (int i = 0; i < 1000; i += 1) {
+            keys[2 * i] = i % 300;
+            keys[2 * i + 1] = 0;
+        }
+        assertEquals(0, t.addAll(keys, 0, 1));
+        assertEquals(299, t.addAll(keys, 1, 999));
+        assertEquals(300, t.size());
+        assertFalse(t.add(new long[]{299, 0}));
+        assertTrue(t.add(new long[]{299, 1}));
+        long[] fresh = {299, 1, 300, 1, 300, 1, 0, 0, 301, 1};
+        assertArrayEquals(new int[]{1, 4}, t.newRows(fresh, 5));
+        assertEquals(301, t.size());
+    }
+
+    @Test
+    public void testSnapshot() {
+        Table t = new Table("T", new String[]{"n"},
+            new Type[]{Type.INT});
+        t.add(new long[]{1});
+        t.createIndex(0);
+        TableIterator before = t.tableIterator();
+        t.add(new long[]{2});
+        t.add(new long[]{1 + 2});
+        assertEquals(1, before.size());
+        assertEquals(3, t.size());
+        assertEquals(1, t.index(0).sortedRows(before.size()).length);
+        assertEquals(-1, t.index(0).last(2, before.size()));
+        assertEquals(1, t.index(0).last(2, t.size()));
+        before.snapshot();
+        assertEquals(3, before.size());
+        TableIterator old = t.tableIterator();
+        t.clear();
+        assertEquals(0, t.size());
+        assertEquals(3, old.size());
+        old.setRow(2);
+        assertEquals("3", old.value(0));
+    }
+
+    @Test
+    public void testServer() throws Exception {
+        ConcurrentHashMap<String, Table> db =
+            new ConcurrentHashMap<String, Table>();
+        db.put("N", new Table("N", new String[]{"n"},
+                              new Type[]{Type.INT}));
+        Server server = new Server(0, db, new ResultCache(), null);
+        Thread accept = new Thread(server::run);
+        accept.start();
+        Thread[] clients = new Thread[4];
+        for (int k = 0; k < clients.length; k += 1) {
+            int first = 100 * k;
+            clients[k] = new Thread(() -> {
+                try (Socket socket =
+                     new Socket("localhost", server.port())) {
+                    PrintStream out =
+                        new PrintStream(socket.getOutputStream());
+                    for (int i = first; i < first + 100; i += 1) {
+                        out.printf("insert into N values '%d';%n", i);
+                        out.println("select n from N where n = 0;");
+                    }
+                    out.println("quit;");
+                    out.flush();
+                    InputStream in = socket.getInputStream();
+                    while (in.read() != -1) {
+                        continue;
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            clients[k].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        server.close();
+        accept.join();
+        assertEquals(400, db.get("N").size());
+    }
+
+    @Test
+    public void testMergeJoin() {
+        JoinInputs in =
+            new JoinInputs(500, i -> i % 37, i -> i % 53, Type.INT);
+        Set<Long> expected = in.pairs(in.hashJoin());
+        Plan merge = new MergeJoinPlan(
+            new SortPlan(new ScanPlan(in.ia), Ordering.ascending(in.ka)),
+            new SortPlan(new ScanPlan(in.ib), Ordering.ascending(in.kb)),
+            in.ka, in.kb);
+        long last = Long.MIN_VALUE;
+        int n = 0;
+        merge.open();
+        while (merge.next()) {
+            assertEquals(in.ka.key(), in.kb.key());
+            assertTrue(in.ka.key() >= last);
+            last = in.ka.key();
+            assertTrue(expected.contains(in.pair()));
+            n += 1;
+        }
+        merge.close();
+        assertEquals(expected.size(), n);
+    }
+
+    @Test
+    public void testSpilling() {
+        JoinInputs in = new JoinInputs(3000, i -> i * 31 % 1000,
+                                       i -> i % 1500, Type.INT);
+        System.setProperty(SpillFile.BUDGET_PROPERTY, "10000");
+        try {
+            Plan sort = new SortPlan(new ScanPlan(in.ia),
+                                     Ordering.ascending(in.ka));
+            for (int pass = 0; pass < 2; pass += 1) {
+                int n = 0;
+                long last = -1;
+                sort.open();
+                while (sort.next()) {
+                    assertTrue(in.ka.key() >= last);
+                    last = in.ka.key();
+                    n += 1;
+                }
+                assertEquals(in.a.size(), n);
+            }
+            sort.close();
+            assertEquals(6000, in.pairs(in.hashJoin()).size());
+        } finally {
+            System.clearProperty(SpillFile.BUDGET_PROPERTY);
+        }
+    }
+
+    /** Return the output of executing SCRIPT on DB. */
+    private static String run(Map<String, Table> db,
+                              String script) {
+        ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        CommandInterpreter interpreter =
+            new CommandInterpreter(db, new ResultCache(0), null,
+                                   new StringReader(script),
+                                   null, out);
+        while (interpreter.statement()) {
+            continue;
+        }
+        out.flush();
+        return bytes.toString();
+    }
+
+    @Test
+    public void testTokenizer() {
+        StringBuilder name = new StringBuilder("n");
+        for (int i = 0; i < 20000; i += 1) {
+            name.append(i % 10);
+        }
+        Tokenizer input = new Tokenizer(new StringReader(
+            "select a_1 from T where x<='1'and y!=z /* c\n*/ ;\r\n"
+            + name + " 'a\n, 'b, 'c,d /* x"), null);
+        String[] expected = {
+            "select", "a_1", "from", "T", "where", "x", "<=", "'1'", "and",
+            "y", "!=", "z", ";", name.toString(),
+        };
+        for (String token : expected) {
+            assertEquals(token, input.next());
+        }
+        assertSame("select", new Tokenizer(new StringReader(
+            "select"), null).next());
+        for (int i = 0; i < 3; i += 1) {
+            try {
+                input.next();
+                fail();
+            } catch (DBException e) {
+                assertEquals("unterminated literal constant",
+                             e.getMessage());
+            }
+            assertEquals(",", input.next());
+        }
+        assertEquals("d", input.next());
+        try {
+            input.next();
+            fail();
+        } catch (DBException e) {
+            assertEquals("unterminated comment", e.getMessage());
+        }
+        assertEquals("*EOF*", input.next());
+    }
+
+    @Test
+    public void testDistinct() {
+        Table t = new Table("T", new String[]{"k", "v"},
+            new Type[]{Type.INT, Type.INT});
+        for (int i = 0; i < 3000; i += 1) {
+            t.add(new long[]{(i * 7) % 500, i});
+        }
+        HashMap<String, Table> db =
+            new HashMap<String, Table>();
+        db.put("T", t);
+        String ordered = "select k from T order by k desc;";
+        String unordered = "select k from T;";
+        String hashOrdered = run(db, ordered);
+        String[] hashUnordered = run(db, unordered).split("\n");
+        assertEquals(501, hashUnordered.length);
+        System.setProperty(SpillFile.BUDGET_PROPERTY, "1000");
+        try {
+            assertEquals(hashOrdered, run(db, ordered));
+            String[] sorted = run(db, unordered).split("\n");
+            assertEquals("  0", sorted[1]);
+            Arrays.sort(hashUnordered);
+            Arrays.sort(sorted);
+            assertArrayEquals(hashUnordered, sorted);
+        } finally {
+            System.clearProperty(SpillFile.BUDGET_PROPERTY);
+        }
+        Table bag = new Table("B", new String[]{"k"},
+                              new Type[]{Type.INT}, true);
+        assertTrue(bag.add(new long[]{1}));
+        assertTrue(bag.add(new long[]{1}));
+        assertEquals(2, bag.size());
+    }
+
+    @Test
+    public void testGroupBy() {
+        Table t = new Table("T", new String[]{"k", "v"},
+            new Type[]{Type.INT, Type.DOUBLE});
+        for (int i = 0; i < 5000; i += 1) {
+            t.add(new long[]{i % 1000, Double.doubleToLongBits(i)});
+        }
+        for (String budget : new String[]{null, "2000"}) {
+            if (budget != null) {
+                System.setProperty(SpillFile.BUDGET_PROPERTY, budget);
+            }
+            try {
+                TableIterator it = t.tableIterator();
+                List<TableIterator> tables = Arrays.asList(it);
+                Column k = new Column(null, "k");
+                Aggregate n = new Aggregate("count", null);
+                Aggregate sum = new Aggregate("sum", new Column(null, "v"));
+                Aggregate max = new Aggregate("max", new Column(null, "v"));
+                for (Column c : Arrays.asList(k, n, sum, max)) {
+                    c.resolve(tables);
+                }
+                AggregatePlan groups =
+                    new AggregatePlan(new ScanPlan(it), Arrays.asList(k),
+                                      Arrays.asList(k, n, sum, max));
+                List<Column> cols = groups.columns();
+                int rows = 0;
+                groups.open();
+                while (groups.next()) {
+                    int key = (int) cols.get(0).key();
+                    assertEquals("5", cols.get(1).value());
+                    assertEquals(5.0 * key + 10000.0,
+                                 Double.parseDouble(cols.get(2).value()),
+                                 0.0);
+                    assertEquals(4000.0 + key,
+                                 Double.parseDouble(cols.get(3).value()),
+                                 0.0);
+                    rows += 1;
+                }
+                groups.close();
+                assertEquals(1000, rows);
+            } finally {
+                System.clearProperty(SpillFile.BUDGET_PROPERTY);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelReader() throws IOException {
+        PrintStream out = new PrintStream("Big.db");
+        out.print("id,dept,note\r\n");
+        for (int i = 0; i < 5000; i += 1) {
+            int id = i % 4000;
+            out.printf("%d,D%d,%s\n", id, id % 13, id % 3 == 0 ? "y" : "x");
+        }
+        out.close();
+        Table seq = Table.readTable("Big");
+        Table par = ParallelReader.read("Big");
+        new File("Big.db").delete();
+        assertEquals(4000, seq.size());
+        assertEquals(seq.size(), par.size());
+        for (int r = 0; r < seq.size(); r += 1) {
+            assertEquals(seq.row(r), par.row(r));
+        }
+    }
+
     @Test
     public void testTableWriteTable() {
         Table t = new Table("Test",
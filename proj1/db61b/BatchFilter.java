@@ -0,0 +1,13 @@
+package db61b;
+
+/** A test applied to a batch of rows of one table at a time.  The
+ *  batch is a selection vector: an array of row numbers, of which only
+ *  a prefix is in use.
+ *  @author Chen Meng. */
+interface BatchFilter {
+
+    /** Keep those of the first N row numbers in SEL whose rows pass my
+     *  test, moving them in order to the front of SEL.  Return the
+     *  number kept. */
+    int filter(int[] sel, int n);
+}
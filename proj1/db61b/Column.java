@@ -75,6 +75,25 @@ class Column {
         }
     }
 
+    /** Return the TableIterator to which I have been resolved, or null
+     *  if I am unresolved or have no row source (as for a Literal). */
+    TableIterator source() {
+        return _rowSource;
+    }
+
+    /** Return the number of my column within the table of my
+     *  TableIterator.  This Column must be resolved. */
+    int index() {
+        return _index;
+    }
+
+    /** Return true iff OTHER denotes the same column of the same
+     *  TableIterator as I do.  Both must be resolved. */
+    boolean sameAs(Column other) {
+        return _rowSource != null && _rowSource == other._rowSource
+            && _index == other._index;
+    }
+
     /** Return my column value from the current row of my
      *  TableIterator.  This Column must be resolved. */
     String value() {
@@ -82,6 +101,21 @@ class Column {
         return _rowSource.value(_index);
     }
 
+    /** Return the key (as defined by ColumnVector) of my column value
+     *  from the current row of my TableIterator.  This Column must be
+     *  resolved. */
+    long key() {
+        assert _rowSource != null;
+        return _rowSource.key(_index);
+    }
+
+    /** Return the Type of my values, or null if I am a Literal, whose
+     *  Type depends on what it is compared with.  This Column must be
+     *  resolved. */
+    Type type() {
+        return _rowSource.table().type(_index);
+    }
+
     /** Column name denoted by THIS. */
     private String _columnName;
     /** Index of the column from which to extract a value. */
@@ -0,0 +1,203 @@
+package db61b;
+
+import java.nio.ByteBuffer;
+
+/** The stored values of one column of a Table, kept in a single
+ *  contiguous array indexed by row number.  Each kind of ColumnVector
+ *  stores one Type of value in an array of a suitable primitive type.
+ *
+ *  Every value also has a key, a long that identifies it among the
+ *  values of its Type: two values of the same Type are equal iff their
+ *  keys are equal.  Keys let tables detect duplicate rows, and joins
+ *  and indexes find equal values, without regard to Type.
+ *
+ *  A ColumnVector may be created from a section of a ColumnarFile, in
+ *  which case the section is decoded only when its values are first
+ *  needed.
+ *
+ *  One thread at a time may append to a ColumnVector while others read
+ *  it (see Table).  Readers only use rows appended before they last
+ *  synchronized with the appender.  Growing replaces the array of
+ *  values with a filled copy, which subclasses publish through a
+ *  volatile field, so any array a reader sees holds those rows.
+ *  @author Chen Meng. */
+abstract class ColumnVector {
+
+    /** Initial capacity of a new ColumnVector. */
+    static final int INITIAL_CAPACITY = 16;
+
+    /** Return a new, empty ColumnVector for values of type TYPE. */
+    static ColumnVector create(Type type) {
+        switch (type) {
+        case INT:
+            return new IntVector();
+        case LONG:
+            return new LongVector();
+        case DOUBLE:
+            return new DoubleVector();
+        default:
+            return new StringVector();
+        }
+    }
+
+    /** Return a ColumnVector of type TYPE holding the SIZE values stored
+     *  in SECTION, as written by encode(SIZE). */
+    static ColumnVector read(Type type, ByteBuffer section, int size) {
+        ColumnVector result = create(type);
+        result._section = section;
+        result._size = size;
+        return result;
+    }
+
+    /** Return the Type of my values. */
+    abstract Type type();
+
+    /** Return the number of values stored in me. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the value in row R, as a string.  Requires
+     *  0 <= R < size(). */
+    abstract String get(int r);
+
+    /** Return the key of the value in row R.  Requires
+     *  0 <= R < size(). */
+    abstract long key(int r);
+
+    /** Return the key of VALUE, converted to my Type.  Throws a
+     *  DBException if VALUE does not denote a value of my Type. */
+    abstract long keyOf(String value);
+
+    /** Return the key of VALUE, converted to my Type, as for keyOf, or
+     *  null if VALUE is in no column.  Unlike keyOf, never adds VALUE to
+     *  a dictionary, so it suits values that are only looked up.  Throws
+     *  a DBException if VALUE does not denote a value of my Type. */
+    Long findKey(String value) {
+        return keyOf(value);
+    }
+
+    /** Return the value whose key is KEY, as a string. */
+    abstract String valueOf(long key);
+
+    /** Return a negative, zero, or positive number according as the
+     *  value with key K1 is less than, equal to, or greater than the one
+     *  with key K2. */
+    abstract int compareKeys(long k1, long k2);
+
+    /** Return the value in row R as a long.  Requires that my Type be
+     *  integral. */
+    long longValue(int r) {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Return the value in row R as a double.  Requires that my Type be
+     *  numeric. */
+    double doubleValue(int r) {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Keep those of the first N row numbers in SEL whose keys are (if
+     *  EQUAL) or are not (otherwise) KEY, moving them in order to the
+     *  front of SEL.  Return the number kept.  This and the other
+     *  select methods are the kernels of batch filtering; subclasses
+     *  override them with loops over their arrays. */
+    int selectKey(long key, boolean equal, int[] sel, int n) {
+        int m;
+        m = 0;
+        for (int i = 0; i < n; i += 1) {
+            int r = sel[i];
+            sel[m] = r;
+            m += (key(r) == key) == equal ? 1 : 0;
+        }
+        return m;
+    }
+
+    /** Keep those of the first N row numbers in SEL whose values lie
+     *  (if INSIDE) or do not lie (otherwise) in the range LO .. HI,
+     *  inclusive, moving them in order to the front of SEL.  Return the
+     *  number kept.  Requires that my Type be integral. */
+    int selectRange(long lo, long hi, boolean inside, int[] sel, int n) {
+        int m;
+        m = 0;
+        for (int i = 0; i < n; i += 1) {
+            int r = sel[i];
+            long x = longValue(r);
+            sel[m] = r;
+            m += (x >= lo && x <= hi) == inside ? 1 : 0;
+        }
+        return m;
+    }
+
+    /** Keep those of the first N row numbers in SEL whose values lie
+     *  (if INSIDE) or do not lie (otherwise) in the range LO .. HI,
+     *  inclusive, and also those whose values are NaN if NAN, moving
+     *  them in order to the front of SEL.  Return the number kept.
+     *  Requires that my Type be numeric. */
+    int selectRange(double lo, double hi, boolean inside, boolean nan,
+                    int[] sel, int n) {
+        int m;
+        m = 0;
+        for (int i = 0; i < n; i += 1) {
+            int r = sel[i];
+            double x = doubleValue(r);
+            sel[m] = r;
+            m += (x != x ? nan : (x >= lo && x <= hi) == inside) ? 1 : 0;
+        }
+        return m;
+    }
+
+    /** Add VALUE, converted to my Type, as my last row.  Throws a
+     *  DBException if VALUE does not denote a value of my Type. */
+    void append(String value) {
+        appendKey(keyOf(value));
+    }
+
+    /** Add the value whose key is KEY as my last row. */
+    void appendKey(long key) {
+        decodeIfNeeded();
+        if (_size == capacity()) {
+            grow(2 * _size);
+        }
+        set(_size, key);
+        _size += 1;
+    }
+
+    /** Return a buffer holding my first N values in a form that
+     *  read(type(), buffer, N) restores. */
+    abstract ByteBuffer encode(int n);
+
+    /** Return the number of values I have room for. */
+    abstract int capacity();
+
+    /** Enlarge my storage to hold N values. */
+    abstract void grow(int n);
+
+    /** Store the value whose key is KEY in row R. */
+    abstract void set(int r, long key);
+
+    /** Set my values from SECTION, which holds SIZE values in the form
+     *  written by encode. */
+    abstract void decode(ByteBuffer section, int size);
+
+    /** Decode my section, if I have one that is not yet decoded.  Must
+     *  be called before using my stored values. */
+    final void decodeIfNeeded() {
+        if (_section != null) {
+            decodeSection();
+        }
+    }
+
+    /** Decode _section and discard it. */
+    private synchronized void decodeSection() {
+        if (_section != null) {
+            decode(_section.duplicate(), _size);
+            _section = null;
+        }
+    }
+
+    /** Undecoded values, or null once they have been decoded. */
+    private volatile ByteBuffer _section;
+    /** Number of values stored. */
+    private int _size;
+}
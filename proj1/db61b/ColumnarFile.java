@@ -0,0 +1,133 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static db61b.Utils.*;
+
+/** Reading and writing tables in a binary, column-oriented file format,
+ *  NAME.dbc, an alternative to the text format of NAME.db.
+ *
+ *  The file starts with a header: the int MAGIC, the numbers of columns
+ *  and rows, the file offset (a long) of each column's section, the
+ *  column titles (each a byte count and UTF-8 bytes), and the Type of
+ *  each column (as one byte, its ordinal).  Each column section follows
+ *  in order, in the format written by its ColumnVector's encode method.
+ *  All numbers are big-endian.
+ *
+ *  A file is read by mapping it into memory; only the header is parsed
+ *  at first, and each column is decoded the first time it is used.  A
+ *  file is written with one gathering write of all its sections, to a
+ *  temporary file that then replaces the old one.  Since
+ *  buffer positions are ints, a file is limited to 2GB.
+ *  @author Chen Meng. */
+class ColumnarFile {
+
+    /** First four bytes of a columnar file ("DBC2"). */
+    static final int MAGIC = 0x44424332;
+
+    /** Return the name of the columnar file for table NAME. */
+    static String fileName(String name) {
+        return name + ".dbc";
+    }
+
+    /** Return true iff there is a columnar file for table NAME that is
+     *  at least as recent as its text file, if any. */
+    static boolean isCurrent(String name) {
+        File binary = new File(fileName(name)), text = new File(name + ".db");
+        return binary.isFile()
+            && (!text.exists()
+                || binary.lastModified() >= text.lastModified());
+    }
+
+    /** Read the contents of NAME.dbc, and return as a Table.  Format
+     *  errors cause a DBException. */
+    static Table read(String name) {
+        String file = fileName(name);
+        try (FileChannel channel = FileChannel.open(Paths.get(file), READ)) {
+            MappedByteBuffer data =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.capacity() < 12 || data.getInt() != MAGIC) {
+                throw error("%s is not a columnar table file", file);
+            }
+            int numColumns = data.getInt(), numRows = data.getInt();
+            long[] offsets = new long[numColumns + 1];
+            for (int c = 0; c < numColumns; c += 1) {
+                offsets[c] = data.getLong();
+            }
+            offsets[numColumns] = data.capacity();
+            String[] titles = new String[numColumns];
+            for (int c = 0; c < numColumns; c += 1) {
+                byte[] bytes = new byte[data.getInt()];
+                data.get(bytes);
+                titles[c] = new String(bytes, UTF_8);
+            }
+            Type[] types = new Type[numColumns];
+            for (int c = 0; c < numColumns; c += 1) {
+                types[c] = Type.values()[data.get()];
+            }
+            ColumnVector[] columns = new ColumnVector[numColumns];
+            for (int c = 0; c < numColumns; c += 1) {
+                data.limit((int) offsets[c + 1]).position((int) offsets[c]);
+                columns[c] =
+                    ColumnVector.read(types[c], data.slice(), numRows);
+            }
+            return new Table(name, titles, columns, numRows);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                 | IndexOutOfBoundsException e) {
+            throw error("%s is not a columnar table file", file);
+        } catch (IOException e) {
+            throw error("problem reading from %s", file);
+        }
+    }
+
+    /** Write the contents of TABLE into the file NAME.dbc.  Any I/O
+     *  errors cause a DBException. */
+    static void write(Table table, String name) {
+        int numColumns = table.numColumns(), numRows = table.size();
+        ByteBuffer[] buffers = new ByteBuffer[numColumns + 1];
+        byte[][] titles = new byte[numColumns][];
+        int headerSize = 12 + 9 * numColumns;
+        for (int c = 0; c < numColumns; c += 1) {
+            titles[c] = table.title(c).getBytes(UTF_8);
+            headerSize += 4 + titles[c].length;
+            buffers[c + 1] = table.column(c).encode(numRows);
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(MAGIC).putInt(numColumns).putInt(numRows);
+        long offset = headerSize;
+        for (int c = 0; c < numColumns; c += 1) {
+            header.putLong(offset);
+            offset += buffers[c + 1].remaining();
+        }
+        for (byte[] title : titles) {
+            header.putInt(title.length).put(title);
+        }
+        for (int c = 0; c < numColumns; c += 1) {
+            header.put((byte) table.type(c).ordinal());
+        }
+        header.flip();
+        buffers[0] = header;
+        String temp = fileName(name) + ".tmp";
+        try {
+            try (FileChannel channel =
+                 FileChannel.open(Paths.get(temp),
+                                  WRITE, CREATE, TRUNCATE_EXISTING)) {
+                while (buffers[numColumns].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(true);
+            }
+            replaceFile(temp, fileName(name));
+        } catch (IOException e) {
+            throw error("trouble writing to %s", fileName(name));
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package db61b;
 
 import java.io.PrintStream;
+import java.io.Reader;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 
 import static db61b.Utils.*;
 import static db61b.Tokenizer.*;
@@ -119,9 +119,26 @@ class CommandInterpreter {
      *  prompts on PROMPTER, if it is non-null, and using DATABASE
      *  to map names of tables to corresponding Tables. */
     CommandInterpreter(Map<String, Table> database,
-                       Scanner inp, PrintStream prompter) {
+                       Reader inp, PrintStream prompter) {
+        this(database, new ResultCache(), null, inp, prompter, System.out);
+    }
+
+    /** A new CommandParser executing commands read from INP, writing
+     *  prompts on PROMPTER, if it is non-null, and results on OUTPUT.
+     *  It uses DATABASE to map names of tables to corresponding Tables,
+     *  and CACHE for the results of select statements, and if LOG is
+     *  non-null, makes the tables it creates and the rows it inserts
+     *  durable in LOG.  Several CommandInterpreters running in
+     *  different threads may share DATABASE, CACHE, and LOG, if
+     *  DATABASE is a ConcurrentMap. */
+    CommandInterpreter(Map<String, Table> database, ResultCache cache,
+                       Log log, Reader inp, PrintStream prompter,
+                       PrintStream output) {
         _input = new Tokenizer(inp, prompter);
         _database = database;
+        _cache = cache;
+        _log = log;
+        _output = output;
     }
 
     /** Parse and execute one statement from the token stream.  Return true
@@ -142,6 +159,9 @@ class CommandInterpreter {
         case "insert":
             insertStatement();
             break;
+        case "copy":
+            copyStatement();
+            break;
         case "print":
             printStatement();
             break;
@@ -160,11 +180,54 @@ class CommandInterpreter {
     /** Parse and execute a create statement from the token stream. */
     private void createStatement() {
         _input.next("create");
+        if (_input.nextIs("index")) {
+            createIndexStatement();
+            return;
+        }
+        if (_input.nextIf("materialized")) {
+            createViewStatement();
+            return;
+        }
         _input.next("table");
         String name = name();
         Table table = tableDefinition(name);
-        _database.remove(name);
-        _database.put(name, table);
+        if (_log != null) {
+            _log.created(table);
+        }
+        replace(name, table);
+        _input.next(";");
+    }
+
+    /** Parse and execute the remainder of a create index statement,
+     *  following "create", from the token stream. */
+    private void createIndexStatement() {
+        _input.next("index");
+        _input.next("on");
+        Table table = tableName();
+        _input.next("(");
+        String col = name();
+        _input.next(")");
+        int k = table.columnIndex(col);
+        if (k == -1) {
+            throw error("%s is not a column in %s", col, table.name());
+        }
+        _input.next(";");
+        table.createIndex(k);
+    }
+
+    /** Parse and execute the remainder of a create materialized view
+     *  statement, following "create materialized", from the token
+     *  stream.  The select clause may not have an order by clause. */
+    private void createViewStatement() {
+        _input.next("view");
+        String name = name();
+        _input.next("as");
+        ArrayList<Column> columns = new ArrayList<Column>();
+        ArrayList<TableIterator> iterators = new ArrayList<TableIterator>();
+        ArrayList<Condition> conditions = new ArrayList<Condition>();
+        List<Column> groupBy = selectBody(columns, iterators, conditions);
+        View view = new View(name, columns, iterators, conditions, groupBy);
+        replace(name, view.table());
         _input.next(";");
     }
 
@@ -177,40 +240,179 @@ class CommandInterpreter {
         _input.next(";");
     }
 
-    /** Parse and execute an insert statement from the token stream. */
+    /** Parse and execute an insert statement from the token stream.  The
+     *  values are either one row of literals or any number of
+     *  parenthesized rows separated by commas.  All rows are converted
+     *  before any is added, so that an invalid row adds nothing, and are
+     *  then added in batches.  If the log needs a checkpoint, as after a
+     *  failed write, it is taken before the rows are logged. */
     private void insertStatement() {
         _input.next("insert");
         _input.next("into");
         Table table = tableName();
+        if (table.view() != null) {
+            throw error("cannot insert into materialized view %s",
+                        table.name());
+        }
         _input.next("values");
 
+        ArrayList<String[]> rows = new ArrayList<>();
+        if (_input.nextIs("(")) {
+            rows.add(tuple());
+            while (_input.nextIf(",")) {
+                rows.add(tuple());
+            }
+        } else {
+            rows.add(literals());
+        }
+        int width = table.numColumns();
+        long[] keys = new long[rows.size() * width];
+        for (int i = 0; i < rows.size(); i += 1) {
+            String[] row = rows.get(i);
+            if (row.length != width) {
+                throw error("inserted row has wrong length");
+            }
+            for (int c = 0; c < width; c += 1) {
+                keys[i * width + c] = table.column(c).keyOf(row[c]);
+            }
+        }
+        int size = table.size();
+        if (_log != null) {
+            if (_log.needsCheckpoint()) {
+                _log.checkpoint(_database);
+            }
+            _log.applying();
+        }
+        try {
+            if (_log != null) {
+                logInsertions(table, rows, keys);
+            }
+            for (int i = 0; i < rows.size();
+                 i += ParallelReader.BATCH_ROWS) {
+                int n = Math.min(ParallelReader.BATCH_ROWS, rows.size() - i);
+                table.addAll(keys, i, n);
+            }
+        } finally {
+            if (_log != null) {
+                _log.applied();
+            }
+        }
+        _cache.invalidate(table);
+        View.rowsAdded(table, size);
+        _input.next(";");
+    }
+
+    /** Log as inserted into TABLE, and commit, those of ROWS, whose
+     *  values have the keys KEYS, that are not already in TABLE (nor
+     *  repeated), before they are added to TABLE.  A row inserted by
+     *  another client meanwhile may be logged twice, which recovery
+     *  tolerates. */
+    private void logInsertions(Table table, List<String[]> rows,
+                               long[] keys) {
+        long end;
+        end = 0;
+        for (int i : table.newRows(keys, rows.size())) {
+            end = _log.inserted(table, rows.get(i));
+        }
+        if (end > 0) {
+            _log.commit(end);
+        }
+    }
+
+    /** Parse a parenthesized row of literals from the token stream, and
+     *  return its values. */
+    private String[] tuple() {
+        _input.next("(");
+        String[] row = literals();
+        _input.next(")");
+        return row;
+    }
+
+    /** Parse one or more literals separated by commas from the token
+     *  stream, and return their values. */
+    private String[] literals() {
         ArrayList<String> values = new ArrayList<>();
         values.add(literal());
         while (_input.nextIf(",")) {
             values.add(literal());
         }
-        table.add(new Row(values.toArray(new String[values.size()])));
+        return values.toArray(new String[values.size()]);
+    }
+
+    /** Parse and execute a copy statement from the token stream, adding
+     *  to a table the rows of a file in the format of the rows of a .db
+     *  file, with no header.  The file is parsed in parallel and its rows
+     *  added in batches.  With a log, the whole table is then written to
+     *  its file, which is cheaper than logging each row. */
+    private void copyStatement() {
+        _input.next("copy");
+        Table table = tableName();
+        if (table.view() != null) {
+            throw error("cannot insert into materialized view %s",
+                        table.name());
+        }
+        _input.next("from");
+        String file = literal();
+        int size = table.size(), added;
+        try {
+            added = ParallelReader.copy(table, file);
+        } finally {
+            if (table.size() > size) {
+                if (_log != null) {
+                    _log.created(table);
+                }
+                _cache.invalidate(table);
+                View.rowsAdded(table, size);
+            }
+        }
         _input.next(";");
+        _output.printf("Copied %d rows into %s%n", added, table.name());
     }
 
-    /** Parse and execute a load statement from the token stream.
-     *  Unchecked. */
+    /** Parse and execute a load statement from the token stream.  Reads
+     *  the columnar file NAME.dbc instead of NAME.db when it is at least
+     *  as recent, and adds the rows logged as inserted into NAME that
+     *  were not checkpointed.  Unchecked. */
     private void loadStatement() {
         _input.next("load");
         String name = _input.next();
-        _database.put(name, Table.readTable(name));
+        if (ColumnarFile.isCurrent(name)) {
+            replace(name, recovered(ColumnarFile.read(name)));
+            _input.next(";");
+            _output.println("Loaded " + ColumnarFile.fileName(name));
+            return;
+        }
+        replace(name, recovered(Table.readTable(name)));
         _input.next(";");
-        System.out.println("Loaded " + name + ".db");
+        _output.println("Loaded " + name + ".db");
     }
 
-    /** Parse and execute a store statement from the token stream. */
+    /** Return TABLE, just loaded, with the rows that _log, if any,
+     *  recovers for it added. */
+    private Table recovered(Table table) {
+        if (_log != null) {
+            _log.loaded(table);
+        }
+        return table;
+    }
+
+    /** Parse and execute a store statement from the token stream.  With
+     *  the keyword "binary" after the table name, writes the columnar
+     *  file NAME.dbc rather than NAME.db; loading a .db file and storing
+     *  it this way converts it. */
     private void storeStatement() {
         _input.next("store");
         String name = _input.peek();
         Table table = tableName();
+        if (_input.nextIf("binary")) {
+            _input.next(";");
+            ColumnarFile.write(table, name);
+            _output.printf("Stored %s\n", ColumnarFile.fileName(name));
+            return;
+        }
         table.writeTable(name);
         _input.next(";");
-        System.out.printf("Stored %s.db\n", name);
+        _output.printf("Stored %s.db\n", name);
     }
 
     /** Parse and execute a print statement from the token stream. */
@@ -218,65 +420,255 @@ class CommandInterpreter {
         _input.next("print");
         Table t = tableName();
         _input.next(";");
-        System.out.println("Contents of " + t.name() + ":");
-        t.print();
+        _output.println("Contents of " + t.name() + ":");
+        t.print(_output);
     }
 
-    /** Parse and execute a select statement from the token stream. */
+    /** Parse and execute a select statement from the token stream.
+     *  If caching is enabled, prints the cached result if the same
+     *  statement was executed before and the tables it reads have not
+     *  changed since; otherwise, caches the result as it is printed,
+     *  unless it grows too large. */
     private void selectStatement() {
-        Table result = selectClause("");
+        List<String> tokens =
+            _cache.capacity() == 0 ? null : _input.peekStatement();
+        if (tokens == null) {
+            Query result = selectClause("");
+            _input.next(";");
+            _output.println("Search results:");
+            result.print(_output);
+            return;
+        }
+        String statement = String.join(" ", tokens);
+        Table cached = _cache.get(statement, _database);
+        if (cached != null) {
+            for (int i = 0; i < tokens.size(); i += 1) {
+                _input.next();
+            }
+            _output.println("Search results:");
+            cached.print(_output);
+            return;
+        }
+        ArrayList<TableIterator> sources = new ArrayList<>();
+        Query result = selectClause("", sources);
         _input.next(";");
-        System.out.println("Search results:");
-        result.print();
+        _output.println("Search results:");
+        Table rows = new Table("", result.titles().toArray(new String[0]),
+                               result.types(), true);
+        result.open();
+        for (Row r = result.next(); r != null; r = result.next()) {
+            Table.print(r, _output);
+            if (rows != null) {
+                rows.add(r);
+                if (ResultCache.bytes(rows) > _cache.capacity()) {
+                    rows = null;
+                }
+            }
+        }
+        result.close();
+        if (rows != null) {
+            _cache.put(statement, rows, sources);
+        }
+    }
+
+    /** Make TABLE the table named NAME, replacing any other. */
+    private void replace(String name, Table table) {
+        Table old = _database.put(name, table);
+        if (old != null) {
+            _cache.invalidate(old);
+        }
     }
 
     /** Parse and execute a table definition for a Table named NAME,
-     *  returning the specified table. */
+     *  returning the specified table.  Each column name may be followed
+     *  by its type (string, int, long, or double); columns are strings
+     *  by default. */
     Table tableDefinition(String name) {
         ArrayList<String> columnTitles = new ArrayList<String>();
+        ArrayList<Type> columnTypes = new ArrayList<Type>();
         if (_input.nextIf("(")) {
-            columnTitles.add(name());
+            columnDefinition(columnTitles, columnTypes);
             while (_input.nextIf(",")) {
-                columnTitles.add(name());
+                columnDefinition(columnTitles, columnTypes);
             }
             _input.next(")");
-            return new Table(name, columnTitles);
+            return new Table(name,
+                             columnTitles.toArray(new String[0]),
+                             columnTypes.toArray(new Type[0]));
         } else {
             _input.next("as");
-            return selectClause(name);
+            return new Table(name, selectClause(name));
         }
     }
 
-    /** Parse and execute a select clause from the token stream, returning the
-     *  resulting table, with name TABLENAME. */
-    Table selectClause(String tableName) {
-        _input.next("select");
+    /** Parse a column name, optionally followed by a type, adding them
+     *  to TITLES and TYPES. */
+    private void columnDefinition(List<String> titles, List<Type> types) {
+        titles.add(name());
+        if (_input.nextIs(",") || _input.nextIs(")")) {
+            types.add(Type.STRING);
+        } else {
+            types.add(Type.forName(name()));
+        }
+    }
+
+    /** Parse a select clause from the token stream, returning a Query,
+     *  named TABLENAME, that produces its rows on demand. */
+    Query selectClause(String tableName) {
+        return selectClause(tableName, new ArrayList<TableIterator>());
+    }
+
+    /** Parse a select clause from the token stream, returning a Query,
+     *  named TABLENAME, that produces its rows on demand, and adding the
+     *  iterators over the snapshots of the tables it reads to
+     *  SOURCES.  If remembering its rows to drop duplicates would exceed
+     *  the memory budget, the tuples are instead sorted on the selected
+     *  columns (after any requested order), and duplicates dropped as
+     *  they pass. */
+    Query selectClause(String tableName, List<TableIterator> sources) {
         ArrayList<Column> col = new ArrayList<Column>();
         ArrayList<TableIterator> titerators = new ArrayList<TableIterator>();
-        ArrayList<String> columnTitles = new ArrayList<String>();
-        col.add(columnSelector());
+        ArrayList<Condition> conlist = new ArrayList<Condition>();
+        List<Column> groupBy = selectBody(col, titerators, conlist);
+        sources.addAll(titerators);
+        if (groupBy != null) {
+            return groupedSelect(tableName, col, titerators, conlist,
+                                 groupBy);
+        }
+        Ordering order = null;
+        if (_input.nextIf("order")) {
+            _input.next("by");
+            order = orderClause(col, titerators);
+        }
+        Plan plan = new Planner(titerators, conlist, order).plan();
+        Query result = new Query(tableName, col, plan);
+        if (result.remembersRows() && !Query.hashFits(plan, col.size())
+            && (order == null || order.within(col))) {
+            plan = new Planner(titerators, conlist,
+                               Ordering.then(order, col)).plan();
+            result = new Query(tableName, col, plan, Query.Distinct.SORTED);
+        }
+        return result;
+    }
+
+    /** Parse a select clause up to any order by clause, adding its
+     *  selected Columns to COLUMNS, iterators for the tables it selects
+     *  from to ITERATORS, and its Conditions to CONDITIONS, all resolved
+     *  against ITERATORS.  Return the Columns it groups by, which is
+     *  empty if it has aggregates and no group by clause, or null if it
+     *  is not grouped. */
+    private List<Column> selectBody(List<Column> columns,
+                                    List<TableIterator> iterators,
+                                    List<Condition> conditions) {
+        _input.next("select");
+        columns.add(columnSelector());
         while (_input.nextIf(",")) {
-            col.add(columnSelector());
+            columns.add(columnSelector());
         }
         _input.next("from");
-        Table table = tableName();
-        titerators.add(table.tableIterator());
+        iterators.add(tableName().tableIterator());
         while (_input.nextIf(",")) {
-            table = tableName();
-            titerators.add(table.tableIterator());
+            iterators.add(tableName().tableIterator());
         }
-        List<Condition> conlist = new ArrayList<Condition>();
         if (_input.nextIf("where")) {
-            conlist = conditionClause(titerators);
+            conditions.addAll(conditionClause(iterators));
         }
-        for (Column c : col) {
-            c.resolve(titerators);
+        for (Column c : columns) {
+            c.resolve(iterators);
             c.nameChange();
-            columnTitles.add(c.name());
         }
-        Table ta = new Table(tableName, columnTitles);
-        select(ta, col, titerators, conlist);
-        return ta;
+        List<Column> groupBy = null;
+        if (_input.nextIf("group")) {
+            _input.next("by");
+            groupBy = new ArrayList<Column>();
+            groupBy.add(columnSelector(iterators));
+            while (_input.nextIf(",")) {
+                groupBy.add(columnSelector(iterators));
+            }
+        } else if (hasAggregate(columns)) {
+            groupBy = new ArrayList<Column>();
+        }
+        return groupBy;
+    }
+
+    /** Return true iff any of COLUMNS is an Aggregate. */
+    private static boolean hasAggregate(List<Column> columns) {
+        for (Column c : columns) {
+            if (c instanceof Aggregate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return a Query named TABLENAME producing one row of values of
+     *  SELECTED for each group of the tuples from the tables of
+     *  ITERATORS that satisfy CONDITIONS, grouped by the values of
+     *  GROUPBY, after parsing any order by clause that follows.  The
+     *  order by clause may mention only the selected columns. */
+    private Query groupedSelect(String tableName, List<Column> selected,
+                                List<TableIterator> iterators,
+                                List<Condition> conditions,
+                                List<Column> groupBy) {
+        Plan input = new Planner(iterators, conditions).plan();
+        AggregatePlan groups = new AggregatePlan(input, groupBy, selected);
+        List<Column> columns = groups.columns();
+        Plan plan = groups;
+        if (_input.nextIf("order")) {
+            _input.next("by");
+            plan = new SortPlan(groups,
+                                orderClause(columns, groups.iterators()));
+        }
+        return new Query(tableName, columns, plan);
+    }
+
+    /** Parse the list of columns, each optionally followed by asc or
+     *  desc, that follows "order by" in a select clause whose selected
+     *  columns are SELECTED, and return the Ordering it denotes.  A
+     *  column name without a table name may be the name of a selected
+     *  column, as changed by "as"; otherwise, it is resolved against
+     *  ITERATORS. */
+    Ordering orderClause(List<Column> selected,
+                         List<TableIterator> iterators) {
+        ArrayList<Column> columns = new ArrayList<Column>();
+        ArrayList<Boolean> descending = new ArrayList<Boolean>();
+        do {
+            columns.add(orderColumn(selected, iterators));
+            boolean desc = _input.nextIf("desc");
+            if (!desc) {
+                _input.nextIf("asc");
+            }
+            descending.add(desc);
+        } while (_input.nextIf(","));
+        boolean[] desc = new boolean[descending.size()];
+        for (int k = 0; k < desc.length; k += 1) {
+            desc[k] = descending.get(k);
+        }
+        return new Ordering(columns, desc);
+    }
+
+    /** Parse and return a resolved column designator in an order by
+     *  clause, as described for orderClause(SELECTED, ITERATORS). */
+    private Column orderColumn(List<Column> selected,
+                               List<TableIterator> iterators) {
+        String name = name();
+        Column col;
+        if (_input.nextIf(".")) {
+            Table table = _database.get(name);
+            if (table == null) {
+                throw error("unknown table: %s", name);
+            }
+            col = new Column(table, name());
+        } else {
+            for (Column c : selected) {
+                if (c.name().equals(name)) {
+                    return c;
+                }
+            }
+            col = new Column(null, name);
+        }
+        col.resolve(iterators);
+        return col;
     }
 
     /** Parse and return a valid name (identifier) from the token stream.
@@ -285,19 +677,22 @@ class CommandInterpreter {
         return _input.next(Tokenizer.IDENTIFIER);
     }
 
-    /** Parse valid column designation (name or table.name), and
-     *  return as an unresolved Column. */
+    /** Parse valid column designation (name or table.name), or an
+     *  aggregate function of one (such as sum(price) or count(*)),
+     *  optionally followed by "as" and a new name, and return as an
+     *  unresolved Column. */
     Column columnSelector() {
-        Table table = null;
-        String col = name();
-        Column result = new Column(table, col);
-        if (_input.nextIf(".")) {
-            table = _database.get(col);
-            if (table == null) {
-                throw error("unknown table: %s", col);
+        String name = name();
+        Column result;
+        if (_input.nextIf("(")) {
+            if (_input.nextIf("*")) {
+                result = new Aggregate(name, null);
+            } else {
+                result = new Aggregate(name, columnDesignator(name()));
             }
-            col = name();
-            result = new Column(table, col);
+            _input.next(")");
+        } else {
+            result = columnDesignator(name);
         }
         if (_input.nextIf("as")) {
             result.storeName(_input.next());
@@ -305,10 +700,28 @@ class CommandInterpreter {
         return result;
     }
 
-    /** Parse and return a column designator, after resolving against
-     *  ITERATORS. */
+    /** Parse the rest of a column designation whose first name, FIRST,
+     *  has been read: nothing, or "." and a column name if FIRST names
+     *  a table.  Return the designated column as an unresolved
+     *  Column. */
+    private Column columnDesignator(String first) {
+        if (_input.nextIf(".")) {
+            Table table = _database.get(first);
+            if (table == null) {
+                throw error("unknown table: %s", first);
+            }
+            return new Column(table, name());
+        }
+        return new Column(null, first);
+    }
+
+    /** Parse and return a column designator, which may not be an
+     *  aggregate function, after resolving against ITERATORS. */
     Column columnSelector(List<TableIterator> iterators) {
         Column col = columnSelector();
+        if (col instanceof Aggregate) {
+            throw error("misplaced aggregate: %s", col.name());
+        }
         col.resolve(iterators);
         return col;
     }
@@ -358,49 +771,6 @@ class CommandInterpreter {
         return con;
     }
 
-    /** Fill TABLE with the result of selecting COLUMNS from the rows returned
-     *  by ITERATORS that satisfy CONDITIONS.  ITERATORS must have size 1 or 2.
-     *  All selected Columns and all Columns mentioned in CONDITIONS must be
-     *  resolved to iterators listed among ITERATORS.  The number of
-     *  COLUMNS must equal TABLE.columns(). */
-    private void select(Table table, ArrayList<Column> columns,
-                        List<TableIterator> iterators,
-                        List<Condition> conditions) {
-        if (iterators.size() == 0) {
-            return;
-        }
-        if (iterators.size() > 2) {
-            throw error("Tables must habe size 1 or 2.");
-        } else {
-            if (iterators.size() == 1) {
-                Row add;
-                TableIterator ite1 = iterators.get(0);
-                while (ite1.hasRow()) {
-                    if (Condition.test(conditions)) {
-                        add = new Row(columns);
-                        table.add(add);
-                    }
-                    ite1.next();
-                }
-            } else {
-                Row add;
-                TableIterator ite1 = iterators.get(0);
-                TableIterator ite2 = iterators.get(1);
-                while (ite1.hasRow()) {
-                    while (ite2.hasRow()) {
-                        if (Condition.test(conditions)) {
-                            add = new Row(columns);
-                            table.add(add);
-                        }
-                        ite2.next();
-                    }
-                    ite2.reset();
-                    ite1.next();
-                }
-            }
-        }
-    }
-
     /** Advance the input past the next semicolon. */
     void skipCommand() {
         while (true) {
@@ -419,4 +789,10 @@ class CommandInterpreter {
     private Tokenizer _input;
     /** Database containing all tables. */
     private Map<String, Table> _database;
+    /** Results of select statements. */
+    private ResultCache _cache;
+    /** Log making changes durable, or null if there is none. */
+    private Log _log;
+    /** Output for results. */
+    private PrintStream _output;
 }
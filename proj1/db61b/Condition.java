@@ -1,6 +1,11 @@
 package db61b;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+import static db61b.Utils.*;
 
 /** Represents a single 'where' condition in a 'select' command.
  *  @author Chen Meng. */
@@ -10,7 +15,12 @@ class Condition {
      *  bits denote whether the relation allows the left value to be
      *  greater than the right (GT), equal to it (EQ),
      *  or less than it (LT). */
-    private static final int GT = 1, EQ = 2, LT = 4;
+    static final int GT = 1, EQ = 2, LT = 4;
+
+    /** Estimated fractions of rows satisfying an equality and an
+     *  ordering relation. */
+    private static final double
+        EQ_SELECTIVITY = 0.1, RANGE_SELECTIVITY = 1.0 / 3.0;
 
     /** A Condition representing COL1 RELATION COL2, where COL1 and COL2
      *  are column designators. and RELATION is one of the
@@ -52,9 +62,18 @@ class Condition {
 
     /** Assuming that ROWS are rows from the respective tables from which
      *  my columns are selected, returns the result of performing the test I
-     *  denote. */
+     *  denote.  My operands must be resolved; the first call compiles
+     *  me. */
     boolean test() {
-        int relation = _column1.value().compareTo(_column2.value());
+        if (_compiled == null) {
+            _compiled = compile();
+        }
+        return _compiled.getAsBoolean();
+    }
+
+    /** Return true iff my relation holds between two values whose
+     *  comparison (as by compareTo) yields RELATION. */
+    private boolean accepts(int relation) {
         if (relation > 0) {
             return ((_rep & GT) != 0);
         } else if (relation == 0) {
@@ -64,6 +83,283 @@ class Condition {
         }
     }
 
+    /** Return an evaluator of my relation between values whose
+     *  comparison yields the result of COMPARISON. */
+    private BooleanSupplier comparing(IntSupplier comparison) {
+        return () -> accepts(comparison.getAsInt());
+    }
+
+    /** Return an evaluator that computes the result of test(),
+     *  specialized to the kinds and Types of my operands, which must be
+     *  resolved.  It reads values straight from the ColumnVectors of
+     *  their tables by the row numbers of their iterators, rather than
+     *  through Columns.
+     *
+     *  Values of the same Type are equal iff their keys are, so = and !=
+     *  compare keys.  Numbers are ordered numerically: two integral
+     *  values as longs, and otherwise as doubles.  A number and a string
+     *  are compared as strings.  A literal compared with a numeric
+     *  column must be a number (else exception thrown); it is parsed
+     *  just once.  A string column is compared with a literal by an
+     *  ordering relation only once for each distinct value in the
+     *  column, remembering the outcome by StringPool code.  A literal is
+     *  looked up in the StringPool, but not added to it: a literal that
+     *  is not there equals no value. */
+    BooleanSupplier compile() {
+        if (_column1.source() == null) {
+            return comparing(() ->
+                             _column1.value().compareTo(_column2.value()));
+        }
+        TableIterator it1 = _column1.source();
+        ColumnVector v1 = it1.column(_column1.index());
+        if (_column2.source() == null) {
+            return compileLiteral(it1, v1, _column2.value());
+        }
+        TableIterator it2 = _column2.source();
+        ColumnVector v2 = it2.column(_column2.index());
+        Type t1 = v1.type(), t2 = v2.type();
+        if (t1.sameKeys(t2)) {
+            switch (_rep) {
+            case EQ:
+                return () -> v1.key(it1.row()) == v2.key(it2.row());
+            case LT | GT:
+                return () -> v1.key(it1.row()) != v2.key(it2.row());
+            default:
+                break;
+            }
+        }
+        if (t1.isIntegral() && t2.isIntegral()) {
+            return comparing(() -> Long.compare(v1.longValue(it1.row()),
+                                                v2.longValue(it2.row())));
+        } else if (t1.isNumeric() && t2.isNumeric()) {
+            return comparing(() ->
+                             Double.compare(v1.doubleValue(it1.row()),
+                                            v2.doubleValue(it2.row())));
+        } else {
+            return comparing(() -> v1.get(it1.row())
+                             .compareTo(v2.get(it2.row())));
+        }
+    }
+
+    /** Return an evaluator of my relation between the value of column
+     *  V1 in the current row of IT1 and the literal LITERAL. */
+    private BooleanSupplier compileLiteral(TableIterator it1,
+                                           ColumnVector v1,
+                                           String literal) {
+        if (!v1.type().isNumeric()) {
+            long code = StringPool.find(literal);
+            switch (_rep) {
+            case EQ:
+                return code < 0 ? () -> false
+                    : () -> v1.key(it1.row()) == code;
+            case LT | GT:
+                return code < 0 ? () -> true
+                    : () -> v1.key(it1.row()) != code;
+            default:
+                return new LiteralComparison(it1, v1, literal);
+            }
+        }
+        if (v1.type().isIntegral()) {
+            try {
+                long number = Long.parseLong(literal.trim());
+                switch (_rep) {
+                case EQ:
+                    return () -> v1.longValue(it1.row()) == number;
+                case LT | GT:
+                    return () -> v1.longValue(it1.row()) != number;
+                default:
+                    return comparing(() ->
+                                     Long.compare(v1.longValue(it1.row()),
+                                                  number));
+                }
+            } catch (NumberFormatException e) {
+                /* Not an integer: compare as doubles. */
+            }
+        }
+        double number;
+        try {
+            number = Double.parseDouble(literal) + 0.0;
+        } catch (NumberFormatException e) {
+            throw error("'%s' is not a number", literal);
+        }
+        return comparing(() -> Double.compare(v1.doubleValue(it1.row()),
+                                              number));
+    }
+
+    /** Return a BatchFilter that keeps the rows satisfying me.  My
+     *  operands must be resolved, and must be columns of a single table
+     *  or literals.  Uses kernel() if possible; otherwise, the test is
+     *  applied to each row in turn by positioning the table's iterator
+     *  on it. */
+    BatchFilter compileBatch() {
+        BatchFilter kernel = kernel();
+        if (kernel != null) {
+            return kernel;
+        }
+        TableIterator it = _column1.source();
+        BooleanSupplier test = compile();
+        return (sel, n) -> {
+            int m;
+            m = 0;
+            for (int i = 0; i < n; i += 1) {
+                it.setRow(sel[i]);
+                if (test.getAsBoolean()) {
+                    sel[m] = sel[i];
+                    m += 1;
+                }
+            }
+            return m;
+        };
+    }
+
+    /** If I compare a column with a literal, return a BatchFilter for
+     *  me that is one of the select kernels of the column's
+     *  ColumnVector, or else null.  There is no kernel for an ordering
+     *  of strings.  A kernel reads only the column's storage, so it may
+     *  be used by several threads at once.  My operands must be
+     *  resolved. */
+    BatchFilter kernel() {
+        if (_column1.source() == null || _column2.source() != null) {
+            return null;
+        }
+        TableIterator it = _column1.source();
+        ColumnVector v1 = it.column(_column1.index());
+        return compileKernel(v1, _column2.value());
+    }
+
+    /** Return a kernel that keeps the rows whose value in column V1
+     *  stands in my relation to LITERAL, or null if there is none.  The
+     *  relation becomes a range test of the value (or its complement,
+     *  for !=). */
+    private BatchFilter compileKernel(ColumnVector v1, String literal) {
+        boolean inside = _rep != (LT | GT);
+        if (!v1.type().isNumeric()) {
+            if (_rep != EQ && _rep != (LT | GT)) {
+                return null;
+            }
+            long code = StringPool.find(literal);
+            if (code < 0) {
+                return inside ? (sel, n) -> 0 : (sel, n) -> n;
+            }
+            return (sel, n) -> v1.selectKey(code, inside, sel, n);
+        }
+        if (v1.type().isIntegral()) {
+            try {
+                long number = Long.parseLong(literal.trim());
+                long lo = Long.MIN_VALUE, hi = Long.MAX_VALUE;
+                if ((_rep & LT) != 0 && _rep != (LT | GT)) {
+                    hi = (_rep & EQ) != 0 ? number : number - 1;
+                } else if ((_rep & GT) != 0 && _rep != (LT | GT)) {
+                    lo = (_rep & EQ) != 0 ? number : number + 1;
+                } else {
+                    lo = hi = number;
+                }
+                if ((_rep == LT && number == Long.MIN_VALUE)
+                    || (_rep == GT && number == Long.MAX_VALUE)) {
+                    return (sel, n) -> 0;
+                }
+                long lo1 = lo, hi1 = hi;
+                return (sel, n) -> v1.selectRange(lo1, hi1, inside, sel, n);
+            } catch (NumberFormatException e) {
+                /* Not an integer: compare as doubles. */
+            }
+        }
+        double number;
+        try {
+            number = Double.parseDouble(literal) + 0.0;
+        } catch (NumberFormatException e) {
+            throw error("'%s' is not a number", literal);
+        }
+        if (Double.isNaN(number)) {
+            return null;
+        }
+        double lo = Double.NEGATIVE_INFINITY, hi = Double.POSITIVE_INFINITY;
+        if ((_rep & LT) != 0 && _rep != (LT | GT)) {
+            hi = (_rep & EQ) != 0 ? number : Math.nextDown(number);
+        } else if ((_rep & GT) != 0 && _rep != (LT | GT)) {
+            lo = (_rep & EQ) != 0 ? number : Math.nextUp(number);
+        } else {
+            lo = hi = number;
+        }
+        if (lo > hi || (_rep == LT && number == lo)
+            || (_rep == GT && number == hi)) {
+            lo = Double.POSITIVE_INFINITY;
+            hi = Double.NEGATIVE_INFINITY;
+        }
+        boolean nan = (_rep & GT) != 0;
+        double lo1 = lo, hi1 = hi;
+        return (sel, n) -> v1.selectRange(lo1, hi1, inside, nan, sel, n);
+    }
+
+    /** Return an evaluator that is true iff all CONDITIONS are
+     *  satisfied, composed of the evaluators from their compile()
+     *  methods.  Compiling once per query avoids interpreting each
+     *  Condition, and iterating over the list, for every row. */
+    static BooleanSupplier compile(List<Condition> conditions) {
+        BooleanSupplier[] tests = new BooleanSupplier[conditions.size()];
+        for (int i = 0; i < tests.length; i += 1) {
+            tests[i] = conditions.get(i).compile();
+        }
+        switch (tests.length) {
+        case 0:
+            return () -> true;
+        case 1:
+            return tests[0];
+        case 2:
+            BooleanSupplier t0 = tests[0], t1 = tests[1];
+            return () -> t0.getAsBoolean() && t1.getAsBoolean();
+        default:
+            BooleanSupplier first = tests[0],
+                rest = compile(conditions.subList(1, tests.length));
+            return () -> first.getAsBoolean() && rest.getAsBoolean();
+        }
+    }
+
+    /** Return true iff I denote an equality test. */
+    boolean isEquality() {
+        return _rep == EQ;
+    }
+
+    /** Return the column on the left of my relation. */
+    Column column1() {
+        return _column1;
+    }
+
+    /** Return the column (possibly a Literal) on the right of my
+     *  relation. */
+    Column column2() {
+        return _column2;
+    }
+
+    /** Return an estimate of the fraction of rows (or combinations of
+     *  rows) that satisfy me, using the customary guesses of 1/10 for
+     *  equality, 9/10 for inequality, and 1/3 for the ordering
+     *  relations. */
+    double selectivity() {
+        if (_rep == EQ) {
+            return EQ_SELECTIVITY;
+        } else if (_rep == (LT | GT)) {
+            return 1.0 - EQ_SELECTIVITY;
+        } else {
+            return RANGE_SELECTIVITY;
+        }
+    }
+
+    /** If I compare a column of IT's table with a literal and that
+     *  column is indexed, return the numbers of the rows of IT's table
+     *  that satisfy me, found through the index.  Otherwise, return
+     *  null. */
+    int[] indexedRows(TableIterator it) {
+        if (_column1.source() != it || !(_column2 instanceof Literal)) {
+            return null;
+        }
+        Index index = it.index(_column1.index());
+        if (index == null) {
+            return null;
+        }
+        return index.find(_rep, _column2.value(), it.size());
+    }
+
     /** Return true iff all CONDITIONS are satified. */
     static boolean test(List<Condition> conditions) {
         for (Condition c : conditions) {
@@ -74,6 +370,48 @@ class Condition {
         return true;
     }
 
+    /** An evaluator for a column compared with a literal by an ordering
+     *  relation.  Remembers the outcome for each StringPool code it
+     *  sees, so each distinct value is compared only once. */
+    private class LiteralComparison implements BooleanSupplier {
+
+        /** An evaluator comparing the value of column V in the current
+         *  row of IT with LITERAL. */
+        LiteralComparison(TableIterator it, ColumnVector v, String literal) {
+            _it = it;
+            _v = v;
+            _literal = literal;
+            _outcomes = new byte[StringPool.size()];
+        }
+
+        @Override
+        public boolean getAsBoolean() {
+            int code = (int) _v.key(_it.row());
+            if (code >= _outcomes.length) {
+                int n = Math.max(code + 1, StringPool.size());
+                _outcomes = Arrays.copyOf(_outcomes, n);
+            }
+            if (_outcomes[code] == UNKNOWN) {
+                boolean result =
+                    accepts(StringPool.value(code).compareTo(_literal));
+                _outcomes[code] = result ? TRUE : FALSE;
+            }
+            return _outcomes[code] == TRUE;
+        }
+
+        /** Values of _outcomes. */
+        private static final byte UNKNOWN = 0, FALSE = 1, TRUE = 2;
+
+        /** The iterator giving the current row. */
+        private final TableIterator _it;
+        /** The column compared. */
+        private final ColumnVector _v;
+        /** The literal compared with. */
+        private final String _literal;
+        /** Outcome of the comparison for each StringPool code. */
+        private byte[] _outcomes;
+    }
+
     /** Column1 in comparison. */
     private Column _column1;
 
@@ -82,4 +420,7 @@ class Condition {
 
     /** Relation expected in denoted in 3-bit value. */
     private int _rep;
+
+    /** The evaluator used by test(), or null until first needed. */
+    private BooleanSupplier _compiled;
 }
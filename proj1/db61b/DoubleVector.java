@@ -0,0 +1,124 @@
+package db61b;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static db61b.Utils.*;
+
+/** A ColumnVector of double-precision numbers.  The key of a value is
+ *  its bit pattern, with -0.0 stored as 0.0 so that equal values have
+ *  equal keys.
+ *  @author Chen Meng. */
+class DoubleVector extends ColumnVector {
+
+    /** An empty DoubleVector. */
+    DoubleVector() {
+        _values = new double[INITIAL_CAPACITY];
+    }
+
+    @Override
+    Type type() {
+        return Type.DOUBLE;
+    }
+
+    @Override
+    String get(int r) {
+        decodeIfNeeded();
+        return Double.toString(_values[r]);
+    }
+
+    @Override
+    long key(int r) {
+        decodeIfNeeded();
+        return Double.doubleToLongBits(_values[r]);
+    }
+
+    @Override
+    double doubleValue(int r) {
+        decodeIfNeeded();
+        return _values[r];
+    }
+
+    @Override
+    long keyOf(String value) {
+        try {
+            return Double.doubleToLongBits(Double.parseDouble(value) + 0.0);
+        } catch (NumberFormatException e) {
+            throw error("'%s' is not a valid double", value);
+        }
+    }
+
+    @Override
+    String valueOf(long key) {
+        return Double.toString(Double.longBitsToDouble(key));
+    }
+
+    @Override
+    int compareKeys(long k1, long k2) {
+        return Double.compare(Double.longBitsToDouble(k1),
+                              Double.longBitsToDouble(k2));
+    }
+
+    @Override
+    int selectKey(long key, boolean equal, int[] sel, int n) {
+        decodeIfNeeded();
+        double[] values = _values;
+        int m;
+        m = 0;
+        for (int i = 0; i < n; i += 1) {
+            int r = sel[i];
+            sel[m] = r;
+            m += (Double.doubleToLongBits(values[r]) == key) == equal ? 1 : 0;
+        }
+        return m;
+    }
+
+    @Override
+    int selectRange(double lo, double hi, boolean inside, boolean nan,
+                    int[] sel, int n) {
+        decodeIfNeeded();
+        double[] values = _values;
+        int m;
+        m = 0;
+        for (int i = 0; i < n; i += 1) {
+            int r = sel[i];
+            double x = values[r];
+            sel[m] = r;
+            m += (x != x ? nan : (x >= lo && x <= hi) == inside) ? 1 : 0;
+        }
+        return m;
+    }
+
+    @Override
+    ByteBuffer encode(int n) {
+        decodeIfNeeded();
+        ByteBuffer section = ByteBuffer.allocate(8 * n);
+        section.asDoubleBuffer().put(_values, 0, n);
+        return section;
+    }
+
+    @Override
+    int capacity() {
+        return _values.length;
+    }
+
+    @Override
+    void grow(int n) {
+        _values = Arrays.copyOf(_values, n);
+    }
+
+    @Override
+    void set(int r, long key) {
+        _values[r] = Double.longBitsToDouble(key);
+    }
+
+    @Override
+    void decode(ByteBuffer section, int size) {
+        double[] values = new double[Math.max(INITIAL_CAPACITY, size)];
+        section.asDoubleBuffer().get(values, 0, size);
+        _values = values;
+    }
+
+    /** My values. */
+    private volatile double[] _values;
+}
@@ -0,0 +1,60 @@
+package db61b;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/** A Plan that produces the tuples of another Plan that satisfy a
+ *  list of Conditions.
+ *  @author Chen Meng. */
+class FilterPlan extends Plan {
+
+    /** A Plan producing the tuples of CHILD that satisfy CONDITIONS,
+     *  which must mention only columns of CHILD's tables. */
+    FilterPlan(Plan child, List<Condition> conditions) {
+        super(child.iterators());
+        _child = child;
+        _test = Condition.compile(conditions);
+        double selectivity = 1.0;
+        for (Condition c : conditions) {
+            selectivity *= c.selectivity();
+        }
+        _estimate = child.estimate() * selectivity;
+    }
+
+    @Override
+    void open() {
+        _child.open();
+    }
+
+    @Override
+    void close() {
+        _child.close();
+    }
+
+    @Override
+    boolean next() {
+        while (_child.next()) {
+            if (_test.getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    double estimate() {
+        return _estimate;
+    }
+
+    @Override
+    boolean sortedOn(Column col) {
+        return _child.sortedOn(col);
+    }
+
+    /** The source of my tuples. */
+    private final Plan _child;
+    /** Evaluator for the conditions my tuples satisfy. */
+    private final BooleanSupplier _test;
+    /** Estimated number of tuples. */
+    private final double _estimate;
+}
@@ -0,0 +1,238 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** A Plan that joins the tuples of two Plans on equal values of a
+ *  column from each.  The first time it is asked for a tuple, it reads
+ *  all tuples of the build Plan into a hash table keyed on the build
+ *  column; it then scans the probe Plan once, pairing each probe tuple
+ *  with the build tuples having the same key.  The hash table is kept
+ *  when I am reopened, and released when I am closed.
+ *
+ *  If the hash table would exceed the memory budget (see
+ *  SpillFile.budget), I become a grace hash join: the build tuples and
+ *  then the probe tuples, with their keys, are divided among pairs of
+ *  SpillFiles by a hash of the key, and each pair is then joined in
+ *  turn with a hash table holding only its build tuples.
+ *  @author Chen Meng. */
+class HashJoinPlan extends Plan {
+
+    /** A Plan producing the combinations of tuples of BUILD and PROBE
+     *  for which the values of BUILDKEY and PROBEKEY are equal.
+     *  BUILDKEY must be a column of BUILD's tables and PROBEKEY of
+     *  PROBE's, and their Types must have the same keys. */
+    HashJoinPlan(Plan build, Plan probe, Column buildKey, Column probeKey) {
+        super(concat(build, probe));
+        _build = build;
+        _probe = probe;
+        _buildKey = buildKey;
+        _probeKey = probeKey;
+    }
+
+    @Override
+    void open() {
+        if (_buildParts == null) {
+            _probe.open();
+        } else {
+            _part = -1;
+        }
+        _match = -1;
+    }
+
+    @Override
+    void close() {
+        _build.close();
+        _probe.close();
+        _heads = null;
+        _tuples = _chain = null;
+        if (_buildParts != null) {
+            for (int p = 0; p < _buildParts.length; p += 1) {
+                _buildParts[p].close();
+                _probeParts[p].close();
+            }
+            _buildParts = _probeParts = null;
+        }
+    }
+
+    @Override
+    boolean next() {
+        if (_heads == null && _buildParts == null) {
+            build();
+        }
+        while (_match == -1) {
+            if (!nextProbe()) {
+                return false;
+            }
+            Integer head = _heads.get(_probeKeys[0]);
+            _match = head == null ? -1 : head;
+        }
+        if (_buildParts != null) {
+            _probe.restore(_probeTuple, 0);
+        }
+        _build.restore(_tuples, _match * _width);
+        _match = _chain[_match];
+        return true;
+    }
+
+    @Override
+    double estimate() {
+        return Math.max(_build.estimate(), _probe.estimate());
+    }
+
+    /** Make the next probe tuple current, setting _probeKeys[0] to its
+     *  key.  When spilled, the probe tuple is instead read into
+     *  _probeTuple, moving on to the next partition as needed.  Return
+     *  false if there are no more probe tuples. */
+    private boolean nextProbe() {
+        if (_buildParts == null) {
+            if (!_probe.next()) {
+                return false;
+            }
+            _probeKeys[0] = _probeKey.key();
+            return true;
+        }
+        while (_part == -1
+               || !_probeParts[_part].read(_probeTuple, 0, _probeKeys, 0)) {
+            _part += 1;
+            if (_part == _buildParts.length) {
+                _part -= 1;
+                return false;
+            }
+            loadPartition(_part);
+        }
+        return true;
+    }
+
+    /** Read all tuples of _build into the hash table, or into partitions
+     *  if the table grows too large. */
+    private void build() {
+        _width = _build.iterators().size();
+        _heads = new HashMap<>();
+        _tuples = new int[INITIAL_CAPACITY * _width];
+        _chain = new int[INITIAL_CAPACITY];
+        long budget = SpillFile.budget(), used = 0;
+        int n;
+        n = 0;
+        _build.open();
+        while (_build.next()) {
+            if (n == _chain.length) {
+                _chain = Arrays.copyOf(_chain, 2 * n);
+                _tuples = Arrays.copyOf(_tuples, 2 * n * _width);
+            }
+            _build.save(_tuples, n * _width);
+            Integer head = _heads.put(_buildKey.key(), n);
+            _chain[n] = head == null ? -1 : head;
+            n += 1;
+            used += 4 * _width + 4 + (head == null ? ENTRY_BYTES : 0);
+            if (used > budget) {
+                spill(n, used);
+                return;
+            }
+        }
+        _build.close();
+    }
+
+    /** Divide the N tuples in the hash table, which occupy USED bytes,
+     *  and the remaining tuples of _build, and then all tuples of _probe,
+     *  among partitions, and free the hash table. */
+    private void spill(int n, long used) {
+        double share = used / (double) n / SpillFile.budget();
+        int parts = (int) Math.min(MAX_PARTITIONS,
+                                   Math.max(MIN_PARTITIONS,
+                                            2 * share * _build.estimate()));
+        int probeWidth = _probe.iterators().size();
+        _buildParts = new SpillFile[parts];
+        _probeParts = new SpillFile[parts];
+        for (int p = 0; p < parts; p += 1) {
+            _buildParts[p] = new SpillFile(_width, 1);
+            _probeParts[p] = new SpillFile(probeWidth, 1);
+        }
+        long[] key = new long[1];
+        for (long k : _heads.keySet()) {
+            key[0] = k;
+            SpillFile part = _buildParts[partition(k)];
+            for (int t = _heads.get(k); t != -1; t = _chain[t]) {
+                part.write(_tuples, t * _width, key, 0);
+            }
+        }
+        _heads = null;
+        _tuples = _chain = null;
+        int[] tuple = new int[_width];
+        while (_build.next()) {
+            key[0] = _buildKey.key();
+            _build.save(tuple, 0);
+            _buildParts[partition(key[0])].write(tuple, 0, key, 0);
+        }
+        _build.close();
+        tuple = new int[probeWidth];
+        while (_probe.next()) {
+            key[0] = _probeKey.key();
+            _probe.save(tuple, 0);
+            _probeParts[partition(key[0])].write(tuple, 0, key, 0);
+        }
+        _probe.close();
+        _probeTuple = tuple;
+        _part = -1;
+    }
+
+    /** Return the partition for tuples whose key is KEY. */
+    private int partition(long key) {
+        return (int) (((key * 0x9E3779B97F4A7C15L) >>> 33)
+                      % _buildParts.length);
+    }
+
+    /** Replace the hash table with one holding the build tuples of
+     *  partition P, and prepare to read its probe tuples. */
+    private void loadPartition(int p) {
+        SpillFile part = _buildParts[p];
+        _heads = new HashMap<>();
+        _tuples = new int[Math.max(1, part.size()) * _width];
+        _chain = new int[Math.max(1, part.size())];
+        long[] key = new long[1];
+        part.rewind();
+        for (int t = 0; part.read(_tuples, t * _width, key, 0); t += 1) {
+            Integer head = _heads.put(key[0], t);
+            _chain[t] = head == null ? -1 : head;
+        }
+        _probeParts[p].rewind();
+    }
+
+    /** Initial capacity of the hash table, in tuples. */
+    private static final int INITIAL_CAPACITY = 16;
+    /** Approximate size in bytes of an entry in _heads. */
+    private static final int ENTRY_BYTES = 64;
+    /** Bounds on the number of partitions when spilling. */
+    private static final int MIN_PARTITIONS = 8, MAX_PARTITIONS = 1024;
+
+    /** The Plan whose tuples are stored in the hash table. */
+    private final Plan _build;
+    /** The Plan whose tuples are looked up in the hash table. */
+    private final Plan _probe;
+    /** The join column of _build. */
+    private final Column _buildKey;
+    /** The join column of _probe. */
+    private final Column _probeKey;
+    /** Number of row numbers in each stored build tuple. */
+    private int _width;
+    /** The stored build tuples, each as _width row numbers. */
+    private int[] _tuples;
+    /** Maps each build key to the last stored tuple having that key, or
+     *  is null before the hash table is built. */
+    private HashMap<Long, Integer> _heads;
+    /** For each stored tuple, the previous stored tuple with the same
+     *  key, or -1. */
+    private int[] _chain;
+    /** The next stored tuple to pair with the current probe tuple, or -1
+     *  if there is none. */
+    private int _match;
+    /** The key of the current probe tuple, as _probeKeys[0]. */
+    private long[] _probeKeys = new long[1];
+    /** The build and probe tuples of each partition, or null if I have
+     *  not spilled. */
+    private SpillFile[] _buildParts, _probeParts;
+    /** The partition being joined, or -1 before the first. */
+    private int _part;
+    /** The current probe tuple, when I have spilled. */
+    private int[] _probeTuple;
+}
@@ -0,0 +1,141 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/** A secondary index on one column of a Table.  It keeps a hash index
+ *  from each distinct value to the rows holding it, for equality
+ *  tests, and a sorted index of the distinct values, for the ordering
+ *  relations.  The Table tells its indexes about each row it adds, so
+ *  they are always current.  Lookups may run while rows are added, so
+ *  my methods synchronize, and readers of a snapshot of the Table pass
+ *  its size to exclude rows added since.
+ *  @author Chen Meng. */
+class Index {
+
+    /** A new Index on column number COLUMN of TABLE, initially covering
+     *  all rows already in TABLE. */
+    Index(Table table, int column) {
+        _table = table;
+        _column = column;
+        _prev = new int[Math.max(INITIAL_CAPACITY, table.size())];
+        _sorted = new TreeSet<>(table.column(column)::compareKeys);
+        for (int r = 0; r < table.size(); r += 1) {
+            add(r);
+        }
+    }
+
+    /** Return the number of the column I index. */
+    int column() {
+        return _column;
+    }
+
+    /** Record that row number R has been added to my table. */
+    synchronized void add(int r) {
+        long key = _table.column(_column).key(r);
+        if (r >= _prev.length) {
+            _prev = Arrays.copyOf(_prev, Math.max(r + 1, 2 * _prev.length));
+        }
+        Integer last = _last.put(key, r);
+        if (last == null) {
+            _prev[r] = -1;
+            _sorted.add(key);
+        } else {
+            _prev[r] = last;
+        }
+    }
+
+    /** Return the numbers of the rows whose value in my column stands in
+     *  relation REL to VALUE, where REL is a combination of Condition.LT,
+     *  Condition.EQ and Condition.GT.  Returns null for relations that I
+     *  cannot answer better than a scan (i.e., !=), and for values that
+     *  are not of my column's Type, which a scan compares as Condition
+     *  does.  VALUE is looked up without being added to the StringPool;
+     *  if it is in no column, no row equals it, and the ordering
+     *  relations are left to a scan.  Only rows numbered below LIMIT are
+     *  returned. */
+    synchronized int[] find(int rel, String value, int limit) {
+        Long key;
+        try {
+            key = _table.column(_column).findKey(value);
+        } catch (DBException e) {
+            return null;
+        }
+        if (key == null) {
+            return rel == Condition.EQ ? new int[0] : null;
+        }
+        switch (rel) {
+        case Condition.EQ:
+            return rows(Arrays.asList(key), limit);
+        case Condition.LT:
+        case Condition.LT | Condition.EQ:
+            return rows(_sorted.headSet(key, rel != Condition.LT), limit);
+        case Condition.GT:
+        case Condition.GT | Condition.EQ:
+            return rows(_sorted.tailSet(key, rel != Condition.GT), limit);
+        default:
+            return null;
+        }
+    }
+
+    /** Return the number of the last row added below LIMIT whose value
+     *  in my column has the key KEY, or -1 if there is none. */
+    synchronized int last(long key, int limit) {
+        Integer last = _last.get(key);
+        int r = last == null ? -1 : last;
+        while (r >= limit) {
+            r = _prev[r];
+        }
+        return r;
+    }
+
+    /** Return the number of the row added before row R that has the
+     *  same value in my column, or -1 if there is none. */
+    synchronized int previous(int r) {
+        return _prev[r];
+    }
+
+    /** Return the numbers of the rows of my table numbered below LIMIT,
+     *  in ascending order of their values in my column. */
+    synchronized int[] sortedRows(int limit) {
+        return rows(_sorted, limit);
+    }
+
+    /** Return the numbers of the rows numbered below LIMIT whose values
+     *  have the keys KEYS. */
+    private int[] rows(Collection<Long> keys, int limit) {
+        int[] result = new int[INITIAL_CAPACITY];
+        int n;
+        n = 0;
+        for (long key : keys) {
+            for (int r = last(key, limit); r != -1; r = _prev[r]) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, 2 * n);
+                }
+                result[n] = r;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Initial capacity of row arrays. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The Table I index. */
+    private final Table _table;
+    /** The number of the column I index. */
+    private final int _column;
+    /** Maps the key of each distinct value in my column to the last row
+     *  added that holds it. */
+    private HashMap<Long, Integer> _last = new HashMap<>();
+    /** For each row number R, the previous row holding the same value as
+     *  row R, or -1 if none.  With _last, this chains together the rows
+     *  holding each value. */
+    private int[] _prev;
+    /** The keys of the distinct values in my column, in order of
+     *  value. */
+    private TreeSet<Long> _sorted;
+}
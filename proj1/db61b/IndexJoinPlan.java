@@ -0,0 +1,92 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/** A Plan that joins the tuples of a (small) Plan with the rows of a
+ *  table on equal values of a column from each, by looking up each
+ *  tuple's value in an Index on the table's column.  Its cost depends
+ *  on the number of tuples of the outer Plan, not on the size of the
+ *  table, so it suits joining a few new rows, such as those just
+ *  inserted into a table that a materialized View reads, with a large
+ *  table.
+ *  @author Chen Meng. */
+class IndexJoinPlan extends Plan {
+
+    /** A Plan producing the combinations of tuples of OUTER with rows of
+     *  the table of INNER that satisfy CONDITIONS and whose values in
+     *  the column that INDEX indexes equal the value of OUTERKEY.
+     *  CONDITIONS must mention only columns of INNER's table, and the
+     *  Types of OUTERKEY and the indexed column must have the same
+     *  keys. */
+    IndexJoinPlan(Plan outer, TableIterator inner, Column outerKey,
+                  Index index, List<Condition> conditions) {
+        super(combine(outer, inner));
+        _outer = outer;
+        _inner = inner;
+        _outerKey = outerKey;
+        _index = index;
+        _test = Condition.compile(conditions);
+    }
+
+    /** Return the TableIterators of OUTER followed by INNER. */
+    private static List<TableIterator> combine(Plan outer,
+                                               TableIterator inner) {
+        ArrayList<TableIterator> result = new ArrayList<>(outer.iterators());
+        result.add(inner);
+        return result;
+    }
+
+    @Override
+    void open() {
+        _outer.open();
+        _match = -1;
+    }
+
+    @Override
+    void close() {
+        _outer.close();
+    }
+
+    @Override
+    boolean next() {
+        while (true) {
+            while (_match == -1) {
+                if (!_outer.next()) {
+                    return false;
+                }
+                _match = _index.last(_outerKey.key(), _inner.size());
+            }
+            _inner.setRow(_match);
+            _match = _index.previous(_match);
+            if (_test.getAsBoolean()) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    double estimate() {
+        return _outer.estimate();
+    }
+
+    @Override
+    boolean sortedOn(Column col) {
+        return _outer.sortedOn(col);
+    }
+
+    /** The Plan whose tuples are looked up. */
+    private final Plan _outer;
+    /** The iterator positioned on the matching rows of the table. */
+    private final TableIterator _inner;
+    /** The join column of _outer. */
+    private final Column _outerKey;
+    /** The Index on the join column of _inner's table. */
+    private final Index _index;
+    /** Evaluator for the conditions on the rows of _inner's table. */
+    private final BooleanSupplier _test;
+    /** The next row of _inner's table to pair with the current outer
+     *  tuple, or -1 if there is none. */
+    private int _match;
+}
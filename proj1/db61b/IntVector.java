@@ -0,0 +1,117 @@
+package db61b;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static db61b.Utils.*;
+
+/** A ColumnVector of 32-bit integers, whose keys are their values.
+ *  @author Chen Meng. */
+class IntVector extends ColumnVector {
+
+    /** An empty IntVector. */
+    IntVector() {
+        _values = new int[INITIAL_CAPACITY];
+    }
+
+    @Override
+    Type type() {
+        return Type.INT;
+    }
+
+    @Override
+    String get(int r) {
+        decodeIfNeeded();
+        return Integer.toString(_values[r]);
+    }
+
+    @Override
+    long key(int r) {
+        decodeIfNeeded();
+        return _values[r];
+    }
+
+    @Override
+    long longValue(int r) {
+        decodeIfNeeded();
+        return _values[r];
+    }
+
+    @Override
+    double doubleValue(int r) {
+        decodeIfNeeded();
+        return _values[r];
+    }
+
+    @Override
+    long keyOf(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw error("'%s' is not a valid int", value);
+        }
+    }
+
+    @Override
+    String valueOf(long key) {
+        return Long.toString(key);
+    }
+
+    @Override
+    int compareKeys(long k1, long k2) {
+        return Long.compare(k1, k2);
+    }
+
+    @Override
+    int selectKey(long key, boolean equal, int[] sel, int n) {
+        return selectRange(key, key, equal, sel, n);
+    }
+
+    @Override
+    int selectRange(long lo, long hi, boolean inside, int[] sel, int n) {
+        decodeIfNeeded();
+        int[] values = _values;
+        int m;
+        m = 0;
+        for (int i = 0; i < n; i += 1) {
+            int r = sel[i];
+            int x = values[r];
+            sel[m] = r;
+            m += (x >= lo && x <= hi) == inside ? 1 : 0;
+        }
+        return m;
+    }
+
+    @Override
+    ByteBuffer encode(int n) {
+        decodeIfNeeded();
+        ByteBuffer section = ByteBuffer.allocate(4 * n);
+        section.asIntBuffer().put(_values, 0, n);
+        return section;
+    }
+
+    @Override
+    int capacity() {
+        return _values.length;
+    }
+
+    @Override
+    void grow(int n) {
+        _values = Arrays.copyOf(_values, n);
+    }
+
+    @Override
+    void set(int r, long key) {
+        _values[r] = (int) key;
+    }
+
+    @Override
+    void decode(ByteBuffer section, int size) {
+        int[] values = new int[Math.max(INITIAL_CAPACITY, size)];
+        section.asIntBuffer().get(values, 0, size);
+        _values = values;
+    }
+
+    /** My values. */
+    private volatile int[] _values;
+}
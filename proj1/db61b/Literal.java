@@ -19,6 +19,11 @@ class Literal extends Column {
         return _value;
     }
 
+    @Override
+    Type type() {
+        return null;
+    }
+
     @Override
     void resolve(List<TableIterator> iterators) {
     }
@@ -0,0 +1,435 @@
+package db61b;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static db61b.Utils.*;
+
+/** A write-ahead log, which makes inserted rows durable without
+ *  rewriting their tables.  Each insertion is appended to the log as a
+ *  record, and its rows are added to their table, where others may see
+ *  them, only once its records are forced to disk by commit().  Several
+ *  threads committing at once share one force (group commit).  Between
+ *  applying() and applied(), while rows are logged and then added, no
+ *  checkpoint may intervene.
+ *
+ *  A table's durable contents are those of its file (NAME.dbc or
+ *  NAME.db, as for the load statement) plus the insertions logged for
+ *  it.  Creating a table writes its file and logs a record that makes
+ *  earlier insertions into a table of that name obsolete.  A checkpoint
+ *  writes the file of each table with logged insertions, each through a
+ *  temporary file renamed into place, and then empties the log.
+ *
+ *  Opening a log finds the insertions that were not checkpointed (as
+ *  after a crash), and loading a table applies its insertions.  The log
+ *  ends at its last complete record whose checksum is correct, so a
+ *  record torn by a crash is ignored.  Since tables are sets, applying
+ *  an insertion twice is harmless.
+ *
+ *  Each record is an int byte count and an int CRC-32 checksum of the
+ *  bytes that follow: a kind byte (INSERT_RECORD or CREATE_RECORD), the
+ *  table name, and for INSERT_RECORD, the number of values and the
+ *  values, each string as an int byte count and UTF-8 bytes.
+ *  @author Chen Meng. */
+class Log {
+
+    /** Name of the system property giving the log file; there is no log
+     *  unless it is set. */
+    static final String FILE_PROPERTY = "db61b.log";
+
+    /** Name of the system property giving the size of the log, in bytes,
+     *  that triggers a checkpoint. */
+    static final String CHECKPOINT_PROPERTY = "db61b.checkpoint";
+
+    /** Default size of the log that triggers a checkpoint, in bytes. */
+    static final long DEFAULT_CHECKPOINT_SIZE = 16 << 20;
+
+    /** Kind of a record of a row inserted into a table. */
+    private static final byte INSERT_RECORD = 1;
+    /** Kind of a record of a table whose file holds all its rows. */
+    private static final byte CREATE_RECORD = 2;
+    /** Size of the header of a record, in bytes. */
+    private static final int HEADER_SIZE = 8;
+    /** Initial size of the buffer of records being appended. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The log in FILE, created if need be, whose insertions that were
+     *  not checkpointed will be applied to tables as they are loaded. */
+    Log(String file) {
+        this(file, channel(file));
+    }
+
+    /** The log in FILE, which is open as CHANNEL, as for Log(FILE). */
+    Log(String file, FileChannel channel) {
+        _file = file;
+        _channel = channel;
+        _checkpointSize =
+            Long.getLong(CHECKPOINT_PROPERTY, DEFAULT_CHECKPOINT_SIZE);
+        try {
+            ByteBuffer data = ByteBuffer.allocate((int) _channel.size());
+            while (data.hasRemaining() && _channel.read(data) >= 0) {
+                continue;
+            }
+            data.flip();
+            _size = recover(data);
+            _channel.truncate(_size);
+            _channel.position(_size);
+        } catch (IOException e) {
+            throw error("problem reading from log %s", file);
+        }
+    }
+
+    /** Return FILE, created if need be, open for reading and writing. */
+    private static FileChannel channel(String file) {
+        try {
+            return FileChannel.open(Paths.get(file), READ, WRITE, CREATE);
+        } catch (IOException e) {
+            throw error("problem reading from log %s", file);
+        }
+    }
+
+    /** Return the log named by the system property FILE_PROPERTY, or null
+     *  if it is not set. */
+    static Log open() {
+        String file = System.getProperty(FILE_PROPERTY);
+        return file == null ? null : new Log(file);
+    }
+
+    /** Read the records in DATA into _recovered, and return the number
+     *  of bytes up to the end of the last valid record. */
+    private int recover(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= HEADER_SIZE) {
+            int start = data.position();
+            int length = data.getInt(), sum = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                return start;
+            }
+            ByteBuffer record = data.slice();
+            record.limit(length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != sum) {
+                return start;
+            }
+            data.position(data.position() + length);
+            byte kind = record.get();
+            String name = string(record);
+            if (kind == CREATE_RECORD) {
+                _recovered.remove(name);
+            } else {
+                String[] values = new String[record.getInt()];
+                for (int i = 0; i < values.length; i += 1) {
+                    values[i] = string(record);
+                }
+                _recovered.computeIfAbsent(name, k -> new ArrayList<>())
+                    .add(values);
+            }
+        }
+        return data.position();
+    }
+
+    /** Return the string stored at the position of DATA, advancing past
+     *  it. */
+    private static String string(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /** Append a record that VALUES were inserted into TABLE.  Return the
+     *  position in the log past the record, for commit(). */
+    synchronized long inserted(Table table, String[] values) {
+        byte[][] bytes = new byte[values.length + 1][];
+        bytes[0] = table.name().getBytes(UTF_8);
+        int length = 1 + 4 + bytes[0].length + 4;
+        for (int i = 0; i < values.length; i += 1) {
+            bytes[i + 1] = values[i].getBytes(UTF_8);
+            length += 4 + bytes[i + 1].length;
+        }
+        ByteBuffer record = reserve(length);
+        record.put(INSERT_RECORD).putInt(bytes[0].length).put(bytes[0]);
+        record.putInt(values.length);
+        for (int i = 1; i < bytes.length; i += 1) {
+            record.putInt(bytes[i].length).put(bytes[i]);
+        }
+        _dirty.add(table.name());
+        return finish(record, length);
+    }
+
+    /** Write the file of TABLE, which has just been created, loaded, or
+     *  added to in bulk, so that it holds all of TABLE's rows, and log
+     *  that it does.  Return once this is durable.  No record is
+     *  appended meanwhile, so any row whose record precedes mine (and
+     *  so is obsolete) is in the file. */
+    void created(Table table) {
+        long end;
+        synchronized (this) {
+            ColumnarFile.write(table, table.name());
+            byte[] name = table.name().getBytes(UTF_8);
+            int length = 1 + 4 + name.length;
+            ByteBuffer record = reserve(length);
+            record.put(CREATE_RECORD).putInt(name.length).put(name);
+            _dirty.remove(table.name());
+            _recovered.remove(table.name());
+            end = finish(record, length);
+        }
+        commit(end);
+    }
+
+    /** Add to TABLE, which has just been loaded, the rows logged as
+     *  inserted into it that were not checkpointed.  If there are any,
+     *  make TABLE's file hold all its rows, as by created(TABLE). */
+    void loaded(Table table) {
+        List<String[]> rows;
+        synchronized (this) {
+            rows = _recovered.remove(table.name());
+        }
+        if (rows != null) {
+            for (String[] values : rows) {
+                table.add(new Row(values));
+            }
+            created(table);
+        }
+    }
+
+    /** Return a buffer positioned past the header of a new record of
+     *  LENGTH bytes at the end of _buffer, into which the record may be
+     *  written. */
+    private ByteBuffer reserve(int length) {
+        if (_buffer.remaining() < HEADER_SIZE + length) {
+            ByteBuffer bigger =
+                ByteBuffer.allocate(2 * (_buffer.position() + HEADER_SIZE
+                                         + length));
+            _buffer.flip();
+            bigger.put(_buffer);
+            _buffer = bigger;
+        }
+        _buffer.position(_buffer.position() + HEADER_SIZE);
+        return _buffer;
+    }
+
+    /** Fill in the header of the record of LENGTH bytes just written to
+     *  RECORD, and return the position in the log past it. */
+    private long finish(ByteBuffer record, int length) {
+        int start = record.position() - length;
+        ByteBuffer body = record.duplicate();
+        body.position(start).limit(start + length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        record.putInt(start - HEADER_SIZE, length);
+        record.putInt(start - 4, (int) crc.getValue());
+        _end += HEADER_SIZE + length;
+        return _end;
+    }
+
+    /** Return once all records up to position END are on disk.  If no
+     *  other thread is writing the log, write and force all records
+     *  appended so far; otherwise, wait for that thread, whose force may
+     *  include END.  If a write fails, the log is cut back to its last
+     *  record forced to disk, and the records not yet forced are
+     *  dropped: every commit including them fails, as does every later
+     *  commit until a checkpoint, lest the log claim records that are
+     *  lost. */
+    void commit(long end) {
+        ByteBuffer batch;
+        long batchEnd;
+        synchronized (this) {
+            while (_durable < end && _forcing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    /* Ignore InterruptedException */
+                }
+            }
+            if (_durable >= end) {
+                return;
+            }
+            if (_failed) {
+                throw error("trouble writing to log %s", _file);
+            }
+            _forcing = true;
+            batch = _buffer;
+            batchEnd = _end;
+            _buffer = _spare;
+        }
+        boolean written = false;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                _channel.write(batch);
+            }
+            _channel.force(false);
+            written = true;
+        } catch (IOException e) {
+            throw error("trouble writing to log %s", _file);
+        } finally {
+            synchronized (this) {
+                batch.clear();
+                _spare = batch;
+                _forcing = false;
+                if (written) {
+                    _durable = batchEnd;
+                    _size += batchEnd - _logged;
+                    _logged = batchEnd;
+                } else {
+                    fail();
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /** Drop the records not yet forced to disk, and cut the log file
+     *  back to those that were, removing any torn record, after a write
+     *  has failed.  Commits fail until the next checkpoint. */
+    private void fail() {
+        _failed = true;
+        try {
+            _channel.truncate(_size);
+            _channel.position(_size);
+        } catch (IOException e) {
+            /* Ignore IOException: recovery ignores a torn record. */
+        }
+    }
+
+    /** Note that this thread is about to log rows and then add them to
+     *  their table, which no checkpoint may come between (lest it drop
+     *  records of rows not yet in the table).  Must be followed by
+     *  applied(). */
+    synchronized void applying() {
+        while (_checkpointing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                /* Ignore InterruptedException */
+            }
+        }
+        _applying += 1;
+    }
+
+    /** Note that this thread has added the rows it logged since calling
+     *  applying(). */
+    synchronized void applied() {
+        _applying -= 1;
+        notifyAll();
+    }
+
+    /** Return true iff the log has grown large enough to warrant a
+     *  checkpoint, or must have one to accept commits again after a
+     *  failed write. */
+    synchronized boolean needsCheckpoint() {
+        return _failed || _size >= _checkpointSize;
+    }
+
+    /** Write the file of each table in DATABASE into which rows have
+     *  been logged as inserted, and of each table not in DATABASE with
+     *  rows to recover, and then empty the log.  A table with logged
+     *  rows that is no longer in DATABASE, and has none to recover, has
+     *  nothing to write. */
+    synchronized void checkpoint(Map<String, Table> database) {
+        _checkpointing = true;
+        try {
+            while (_forcing || _applying > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    /* Ignore InterruptedException */
+                }
+            }
+            write(database);
+        } finally {
+            _checkpointing = false;
+            notifyAll();
+        }
+    }
+
+    /** Perform a checkpoint with the tables of DATABASE, once no thread
+     *  is writing or applying records. */
+    private void write(Map<String, Table> database) {
+        HashSet<String> names = new HashSet<>(_dirty);
+        names.addAll(_recovered.keySet());
+        for (String name : names) {
+            Table table = database.get(name);
+            if (table == null) {
+                List<String[]> rows = _recovered.get(name);
+                if (rows == null) {
+                    continue;
+                }
+                table = ColumnarFile.isCurrent(name)
+                    ? ColumnarFile.read(name) : Table.readTable(name);
+                for (String[] values : rows) {
+                    table.add(new Row(values));
+                }
+            }
+            ColumnarFile.write(table, name);
+        }
+        try {
+            _channel.truncate(0);
+            _channel.position(0);
+            _channel.force(true);
+        } catch (IOException e) {
+            throw error("trouble writing to log %s", _file);
+        }
+        _buffer.clear();
+        _durable = _logged = _end;
+        _size = 0;
+        _failed = false;
+        _dirty.clear();
+        _recovered.clear();
+    }
+
+    /** Close the log file. */
+    synchronized void close() {
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            /* Ignore IOException */
+        }
+    }
+
+    /** The name of the log file. */
+    private final String _file;
+    /** The log file. */
+    private final FileChannel _channel;
+    /** Size of the log that triggers a checkpoint. */
+    private final long _checkpointSize;
+    /** Records appended but not yet being written. */
+    private ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    /** An empty buffer to take the place of _buffer when it is written. */
+    private ByteBuffer _spare = ByteBuffer.allocate(BUFFER_SIZE);
+    /** True iff some thread is writing and forcing records. */
+    private boolean _forcing;
+    /** True iff a write has failed since the last checkpoint. */
+    private boolean _failed;
+    /** True iff some thread is waiting to checkpoint. */
+    private boolean _checkpointing;
+    /** Number of threads between applying() and applied(). */
+    private int _applying;
+    /** Position past the last record appended.  Positions count all
+     *  bytes ever appended, so they survive checkpoints. */
+    private long _end;
+    /** Position past the last record written. */
+    private long _logged;
+    /** Position past the last record forced to disk. */
+    private long _durable;
+    /** Size of the log file, in bytes. */
+    private long _size;
+    /** Names of the tables with rows logged since the last
+     *  checkpoint. */
+    private final HashSet<String> _dirty = new HashSet<>();
+    /** The rows logged for each table before the log was opened, and not
+     *  yet applied. */
+    private final HashMap<String, List<String[]>> _recovered =
+        new HashMap<>();
+}
@@ -1,7 +1,9 @@
 package db61b;
 
-import java.util.Scanner;
-import java.util.HashMap;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** The main program for db61b.
  *  @author Chen Meng.
@@ -13,27 +15,73 @@ public class Main {
 
     /** Starting with an empty database, read and execute commands from
      *  System.in until receiving a 'quit' ('exit') command or until
-     *  reaching the end of input. */
+     *  reaching the end of input.  If the system property db61b.log
+     *  names a file, keep a write-ahead Log in it, checkpointed on
+     *  exit.  If the system property db61b.port is set, instead serve
+     *  clients on that port until killed. */
     public static void main(String[] unused) {
         System.out.printf("DB61B System.  Version %s.%n", VERSION);
 
-        HashMap<String, Table> db = new HashMap<>();
+        ConcurrentHashMap<String, Table> db = new ConcurrentHashMap<>();
+        ResultCache cache = new ResultCache();
 
-        Scanner input = new Scanner(System.in);
+        Log log = null;
+        try {
+            log = Log.open();
+        } catch (DBException e) {
+            System.out.printf("Error: %s%n", e.getMessage());
+            System.exit(1);
+        }
+
+        Integer port = Integer.getInteger(Server.PORT_PROPERTY);
+        if (port != null) {
+            Server server = new Server(port, db, cache, log);
+            Log serverLog = log;
+            if (log != null) {
+                Runtime.getRuntime().addShutdownHook(
+                    new Thread(() -> checkpoint(serverLog, db)));
+            }
+            System.out.printf("Serving on port %d%n", server.port());
+            server.run();
+            return;
+        }
+
+        InputStreamReader input = new InputStreamReader(System.in);
         CommandInterpreter interpreter =
-            new CommandInterpreter(db, input, System.out);
+            new CommandInterpreter(db, cache, log, input,
+                                   System.out, System.out);
+
+        run(interpreter, System.out);
 
+        if (log != null) {
+            checkpoint(log, db);
+        }
+    }
+
+    /** Execute statements with INTERPRETER until it reads a 'quit'
+     *  ('exit') command or reaches the end of its input, reporting
+     *  errors on OUTPUT. */
+    static void run(CommandInterpreter interpreter, PrintStream output) {
         while (true) {
             try {
                 if (!interpreter.statement()) {
                     break;
                 }
             } catch (DBException e) {
-                System.out.printf("Error: %s%n", e.getMessage());
+                output.printf("Error: %s%n", e.getMessage());
                 interpreter.skipCommand();
             }
         }
     }
 
-}
+    /** Checkpoint LOG with the tables of DB, and close it. */
+    private static void checkpoint(Log log, Map<String, Table> db) {
+        try {
+            log.checkpoint(db);
+        } catch (DBException e) {
+            System.out.printf("Error: %s%n", e.getMessage());
+        }
+        log.close();
+    }
 
+}
@@ -0,0 +1,141 @@
+package db61b;
+
+import java.util.Arrays;
+
+/** A Plan that joins the tuples of two Plans on equal values of a
+ *  column from each, where each Plan produces its tuples in ascending
+ *  order of its column.  It advances whichever input has the smaller
+ *  key; for each run of right tuples with the same key, it keeps their
+ *  row numbers so as to pair them with every left tuple having that
+ *  key.  It needs memory only for one such run, and produces its tuples
+ *  in ascending order of the key.
+ *  @author Chen Meng. */
+class MergeJoinPlan extends Plan {
+
+    /** A Plan producing the combinations of tuples of LEFT and RIGHT for
+     *  which the values of LEFTKEY and RIGHTKEY are equal.  LEFTKEY must
+     *  be a column of LEFT's tables and RIGHTKEY of RIGHT's; their Types
+     *  must have the same keys, and LEFT and RIGHT must be sorted on
+     *  them. */
+    MergeJoinPlan(Plan left, Plan right, Column leftKey, Column rightKey) {
+        super(concat(left, right));
+        _left = left;
+        _right = right;
+        _leftKey = leftKey;
+        _rightKey = rightKey;
+        _order = leftKey.source().column(leftKey.index());
+    }
+
+    @Override
+    void open() {
+        _left.open();
+        _right.open();
+        _width = _right.iterators().size();
+        if (_run == null) {
+            _run = new int[INITIAL_CAPACITY * _width];
+            _pending = new int[_width];
+        }
+        _runSize = _runNext = 0;
+        _havePending = _right.next();
+        if (_havePending) {
+            _pendingKey = _rightKey.key();
+            _right.save(_pending, 0);
+        }
+    }
+
+    @Override
+    void close() {
+        _left.close();
+        _right.close();
+        _run = _pending = null;
+    }
+
+    @Override
+    boolean next() {
+        while (_runNext == _runSize) {
+            if (!_left.next()) {
+                return false;
+            }
+            long key = _leftKey.key();
+            if (_runSize > 0 && _order.compareKeys(key, _runKey) == 0) {
+                _runNext = 0;
+                break;
+            }
+            readRun(key);
+        }
+        _right.restore(_run, _runNext * _width);
+        _runNext += 1;
+        return true;
+    }
+
+    @Override
+    double estimate() {
+        return Math.max(_left.estimate(), _right.estimate());
+    }
+
+    @Override
+    boolean sortedOn(Column col) {
+        return col.sameAs(_leftKey) || col.sameAs(_rightKey);
+    }
+
+    /** Skip the right tuples whose keys are less than KEY, and make the
+     *  run the right tuples whose keys equal KEY. */
+    private void readRun(long key) {
+        _runSize = _runNext = 0;
+        while (_havePending && _order.compareKeys(_pendingKey, key) < 0) {
+            advance();
+        }
+        while (_havePending && _order.compareKeys(_pendingKey, key) == 0) {
+            if ((_runSize + 1) * _width > _run.length) {
+                _run = Arrays.copyOf(_run, 2 * _run.length);
+            }
+            System.arraycopy(_pending, 0, _run, _runSize * _width, _width);
+            _runSize += 1;
+            advance();
+        }
+        _runKey = key;
+    }
+
+    /** Read the next right tuple into _pending.  The right iterators are
+     *  first put back on the last tuple _right produced, which pairing
+     *  with the run may have changed. */
+    private void advance() {
+        _right.restore(_pending, 0);
+        _havePending = _right.next();
+        if (_havePending) {
+            _pendingKey = _rightKey.key();
+            _right.save(_pending, 0);
+        }
+    }
+
+    /** Initial capacity of the run, in tuples. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The left input. */
+    private final Plan _left;
+    /** The right input, whose runs are kept. */
+    private final Plan _right;
+    /** The join column of _left. */
+    private final Column _leftKey;
+    /** The join column of _right. */
+    private final Column _rightKey;
+    /** Compares keys of the join columns. */
+    private final ColumnVector _order;
+    /** Number of row numbers in each right tuple. */
+    private int _width;
+    /** The current run of right tuples, each as _width row numbers. */
+    private int[] _run;
+    /** Number of tuples in the run. */
+    private int _runSize;
+    /** Index in the run of the tuple to pair next with the current left
+     *  tuple. */
+    private int _runNext;
+    /** The key of the run's tuples. */
+    private long _runKey;
+    /** The right tuple after the run, if _havePending. */
+    private int[] _pending;
+    /** True iff _right has produced a tuple not yet in a run. */
+    private boolean _havePending;
+    /** The key of the pending tuple. */
+    private long _pendingKey;
+}
@@ -0,0 +1,82 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** Filters the rows of a large table on all available processors.  The
+ *  candidate rows are divided into morsels of MORSEL_SIZE rows, and a
+ *  task on a fork-join pool runs the kernels over each morsel a batch
+ *  at a time, as ScanPlan does, collecting the surviving row numbers
+ *  in an array of its own.  The arrays are concatenated in morsel
+ *  order, so no two tasks share any data structure but the table's
+ *  (read-only) columns, and the result lists rows in the same order as
+ *  a sequential scan.
+ *  @author Chen Meng. */
+class MorselScan {
+
+    /** Number of candidate rows per task. */
+    static final int MORSEL_SIZE = 16 * ScanPlan.BATCH_SIZE;
+
+    /** Smallest number of candidate rows worth filtering in
+     *  parallel. */
+    static final int MIN_PARALLEL_ROWS = 4 * MORSEL_SIZE;
+
+    /** Return true iff filtering TOTAL candidate rows on the common
+     *  fork-join pool is likely to be faster than doing so on the
+     *  current thread. */
+    static boolean worthwhile(int total) {
+        return total >= MIN_PARALLEL_ROWS
+            && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /** Return the numbers of the candidate rows that pass all of
+     *  KERNELS, in order, filtering morsels in parallel on POOL.  The
+     *  candidates are the first TOTAL elements of ROWS, or the rows
+     *  numbered 0 .. TOTAL-1 if ROWS is null.  KERNELS must be safe to
+     *  use from several threads at once (see Condition.kernel). */
+    static int[] select(int[] rows, int total, BatchFilter[] kernels,
+                        ForkJoinPool pool) {
+        ArrayList<ForkJoinTask<int[]>> tasks = new ArrayList<>();
+        for (int start = 0; start < total; start += MORSEL_SIZE) {
+            int from = start, to = Math.min(total, start + MORSEL_SIZE);
+            tasks.add(pool.submit(() -> morsel(rows, from, to, kernels)));
+        }
+        int[][] parts = new int[tasks.size()][];
+        int size;
+        size = 0;
+        for (int k = 0; k < parts.length; k += 1) {
+            parts[k] = tasks.get(k).join();
+            size += parts[k].length;
+        }
+        int[] result = new int[size];
+        int n;
+        n = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, n, part.length);
+            n += part.length;
+        }
+        return result;
+    }
+
+    /** Return the numbers of the candidate rows FROM .. TO-1 (as for
+     *  select(ROWS, ...)) that pass all of KERNELS, in order. */
+    private static int[] morsel(int[] rows, int from, int to,
+                                BatchFilter[] kernels) {
+        int[] result = new int[to - from];
+        int[] sel = new int[ScanPlan.BATCH_SIZE];
+        int m;
+        m = 0;
+        for (int start = from; start < to; start += sel.length) {
+            int n = Math.min(sel.length, to - start);
+            ScanPlan.candidates(rows, start, sel, n);
+            for (int k = 0; k < kernels.length && n > 0; k += 1) {
+                n = kernels[k].filter(sel, n);
+            }
+            System.arraycopy(sel, 0, result, m, n);
+            m += n;
+        }
+        return Arrays.copyOf(result, m);
+    }
+}
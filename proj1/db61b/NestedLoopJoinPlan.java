@@ -0,0 +1,61 @@
+package db61b;
+
+/** A Plan that produces every combination of a tuple of one Plan with a
+ *  tuple of another, rescanning the inner Plan for each outer tuple.
+ *  @author Chen Meng. */
+class NestedLoopJoinPlan extends Plan {
+
+    /** A Plan producing all combinations of tuples of OUTER and
+     *  INNER. */
+    NestedLoopJoinPlan(Plan outer, Plan inner) {
+        super(concat(outer, inner));
+        _outer = outer;
+        _inner = inner;
+    }
+
+    @Override
+    void open() {
+        _outer.open();
+        _haveOuter = false;
+    }
+
+    @Override
+    void close() {
+        _outer.close();
+        _inner.close();
+    }
+
+    @Override
+    boolean next() {
+        while (true) {
+            if (!_haveOuter) {
+                if (!_outer.next()) {
+                    return false;
+                }
+                _inner.open();
+                _haveOuter = true;
+            }
+            if (_inner.next()) {
+                return true;
+            }
+            _haveOuter = false;
+        }
+    }
+
+    @Override
+    double estimate() {
+        return _outer.estimate() * _inner.estimate();
+    }
+
+    @Override
+    boolean sortedOn(Column col) {
+        return _outer.sortedOn(col);
+    }
+
+    /** The outer (once-scanned) source of tuples. */
+    private final Plan _outer;
+    /** The inner (rescanned) source of tuples. */
+    private final Plan _inner;
+    /** True iff _outer is positioned on a tuple. */
+    private boolean _haveOuter;
+}
@@ -0,0 +1,142 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+/** An order of tuples given by the values of a list of Columns, each
+ *  ascending or descending, as in an order by clause.  Tuples are
+ *  compared by the keys of their values, which the Ordering reads into
+ *  arrays of longs so that tuples can be sorted after their Plan has
+ *  moved on.
+ *  @author Chen Meng. */
+class Ordering {
+
+    /** An Ordering by the values of COLUMNS, which must be resolved,
+     *  in turn; the values of COLUMNS.get(K) are in descending order iff
+     *  DESCENDING[K]. */
+    Ordering(List<Column> columns, boolean[] descending) {
+        _columns = columns.toArray(new Column[columns.size()]);
+        _descending = descending;
+        _vectors = new ColumnVector[_columns.length];
+        for (int k = 0; k < _columns.length; k += 1) {
+            Column col = _columns[k];
+            _vectors[k] = col.source().column(col.index());
+        }
+    }
+
+    /** Return an Ordering by the values of COL, ascending. */
+    static Ordering ascending(Column col) {
+        return new Ordering(Arrays.asList(col), new boolean[1]);
+    }
+
+    /** Return an Ordering by the Columns of ORDER, if it is not null,
+     *  as ORDER orders them, and then by each of COLUMNS, ascending.  If
+     *  ORDER orders only by some of COLUMNS, tuples with equal values of
+     *  COLUMNS are together in the result, as a sort-based distinct
+     *  requires. */
+    static Ordering then(Ordering order, List<Column> columns) {
+        ArrayList<Column> all = new ArrayList<>();
+        int n = order == null ? 0 : order.size();
+        boolean[] descending = new boolean[n + columns.size()];
+        for (int k = 0; k < n; k += 1) {
+            all.add(order._columns[k]);
+            descending[k] = order._descending[k];
+        }
+        all.addAll(columns);
+        return new Ordering(all, descending);
+    }
+
+    /** Return true iff each Column I order by is the same as one of
+     *  COLUMNS. */
+    boolean within(List<Column> columns) {
+        for (Column col : _columns) {
+            boolean found;
+            found = false;
+            for (Column c : columns) {
+                found |= c.sameAs(col);
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the number of Columns I order by. */
+    int size() {
+        return _columns.length;
+    }
+
+    /** Return the Kth Column I order by. */
+    Column column(int k) {
+        return _columns[k];
+    }
+
+    /** Return true iff tuples in my order are in ascending order of the
+     *  values of COL, and I order by nothing else. */
+    boolean isAscending(Column col) {
+        return _columns.length == 1 && !_descending[0]
+            && _columns[0].sameAs(col);
+    }
+
+    /** Store the keys of my Columns' values in the current tuple into
+     *  KEYS, starting at index K. */
+    void keys(long[] keys, int k) {
+        for (Column col : _columns) {
+            keys[k] = col.key();
+            k += 1;
+        }
+    }
+
+    /** Return a negative, zero, or positive number according as the
+     *  tuple whose keys are stored at index I of KEYS1 comes before, is
+     *  tied with, or comes after the one at index J of KEYS2. */
+    int compare(long[] keys1, int i, long[] keys2, int j) {
+        for (int k = 0; k < _vectors.length; k += 1) {
+            int cmp = _vectors[k].compareKeys(keys1[i + k], keys2[j + k]);
+            if (cmp != 0) {
+                return _descending[k] ? -cmp : cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Sort the first N elements of ITEMS into the order given by CMP,
+     *  keeping elements that CMP ties in their original order. */
+    static void sort(int[] items, int n, IntBinaryOperator cmp) {
+        int[] from = items, to = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(n, lo + width);
+                int hi = Math.min(n, lo + 2 * width);
+                int i = lo, j = mid;
+                for (int k = lo; k < hi; k += 1) {
+                    if (j >= hi
+                        || (i < mid
+                            && cmp.applyAsInt(from[i], from[j]) <= 0)) {
+                        to[k] = from[i];
+                        i += 1;
+                    } else {
+                        to[k] = from[j];
+                        j += 1;
+                    }
+                }
+            }
+            int[] tmp = from;
+            from = to;
+            to = tmp;
+        }
+        if (from != items) {
+            System.arraycopy(from, 0, items, 0, n);
+        }
+    }
+
+    /** The Columns I order by. */
+    private final Column[] _columns;
+    /** _descending[K] is true iff I order by _columns[K] descending. */
+    private final boolean[] _descending;
+    /** The storage of each of _columns, which compares their keys. */
+    private final ColumnVector[] _vectors;
+}
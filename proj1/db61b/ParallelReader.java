@@ -0,0 +1,215 @@
+package db61b;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static db61b.Utils.*;
+
+/** Reads .db files on all available processors.  The file is mapped
+ *  into memory and its rows are divided into byte ranges that begin
+ *  and end on line boundaries.  Each range is parsed into a separate
+ *  partial set of columns by a task on the common fork-join pool, and
+ *  the partial columns are then added to the Table in order, in
+ *  batches, which also removes duplicate rows.  Lines are split as by
+ *  String.split(","), so the result is the same as that of the
+ *  line-at-a-time reader in Table.  The same machinery copies the rows
+ *  of a file with no header into an existing Table.
+ *  @author Chen Meng. */
+class ParallelReader {
+
+    /** Size in bytes of the smallest file worth reading in parallel. */
+    static final long MIN_PARALLEL_SIZE = 1 << 20;
+
+    /** Number of byte ranges per available processor, so that ranges
+     *  that parse slowly do not leave other processors idle. */
+    private static final int RANGES_PER_PROCESSOR = 4;
+
+    /** Number of rows added to a Table at a time. */
+    static final int BATCH_ROWS = 4096;
+
+    /** Read the contents of the file NAME.db, and return as a Table.
+     *  Format errors in the .db file cause a DBException. */
+    static Table read(String name) {
+        String file = name + ".db";
+        ByteBuffer data = map(file);
+        int bodyStart = endOfLine(data, 0, data.limit());
+        if (bodyStart == 0) {
+            throw error("missing header in DB file");
+        }
+        String header = line(data, 0, bodyStart);
+        Table table = new Table(name, header.split(","));
+        addRows(table, data, bodyStart, file);
+        return table;
+    }
+
+    /** Add to TABLE the rows in FILE, which holds lines of values in the
+     *  format of the rows of a .db file, with no header.  Return the
+     *  number of rows added.  Values are converted to the Types of
+     *  TABLE's columns; if a line is malformed, throws a DBException,
+     *  having added some or none of the rows before it. */
+    static int copy(Table table, String file) {
+        return addRows(table, map(file), 0, file);
+    }
+
+    /** Return the contents of FILE, mapped into memory. */
+    private static ByteBuffer map(String file) {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            throw error("could not find %s", file);
+        } catch (IOException e) {
+            throw error("problem reading from %s", file);
+        }
+    }
+
+    /** Add to TABLE the rows on the lines of DATA from position
+     *  BODYSTART on, which was read from FILE, parsing ranges of lines
+     *  in parallel and adding their rows in order, BATCH_ROWS at a time.
+     *  Return the number of rows added. */
+    private static int addRows(Table table, ByteBuffer data, int bodyStart,
+                               String file) {
+        int end = data.limit();
+        Type[] types = new Type[table.numColumns()];
+        for (int c = 0; c < types.length; c += 1) {
+            types[c] = table.type(c);
+        }
+        int numRanges =
+            RANGES_PER_PROCESSOR * ForkJoinPool.getCommonPoolParallelism();
+        ArrayList<ForkJoinTask<ColumnVector[]>> tasks = new ArrayList<>();
+        int start = bodyStart;
+        for (int k = 1; start < end; k += 1) {
+            long target = bodyStart + (long) (end - bodyStart) * k / numRanges;
+            int stop = endOfLine(data, (int) Math.max(start, target), end);
+            int from = start;
+            tasks.add(ForkJoinPool.commonPool().submit(
+                () -> parse(data, from, stop, types)));
+            start = stop;
+        }
+
+        long[] keys = new long[BATCH_ROWS * types.length];
+        int added;
+        added = 0;
+        try {
+            for (ForkJoinTask<ColumnVector[]> task : tasks) {
+                ColumnVector[] part = task.get();
+                int rows = part.length == 0 ? 0 : part[0].size();
+                for (int r = 0; r < rows; r += BATCH_ROWS) {
+                    int n = Math.min(BATCH_ROWS, rows - r);
+                    for (int i = 0, k = 0; i < n; i += 1) {
+                        for (int c = 0; c < part.length; c += 1, k += 1) {
+                            keys[k] = part[c].key(r + i);
+                        }
+                    }
+                    added += table.addAll(keys, 0, n);
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DBException) {
+                throw (DBException) e.getCause();
+            }
+            throw error("problem reading from %s", file);
+        } catch (InterruptedException e) {
+            throw error("interrupted while reading %s", file);
+        }
+        return added;
+    }
+
+    /** Return the position just past the end of the line of DATA that
+     *  contains position P, or END if the line is not terminated before
+     *  END. */
+    private static int endOfLine(ByteBuffer data, int p, int end) {
+        while (p < end && data.get(p) != '\n') {
+            p += 1;
+        }
+        return Math.min(p + 1, end);
+    }
+
+    /** Return the line of DATA from START to END, less its terminating
+     *  end-of-line sequence, if any. */
+    private static String line(ByteBuffer data, int start, int end) {
+        int len = lineLength(data, start, end);
+        byte[] bytes = new byte[len];
+        data.get(start, bytes, 0, len);
+        return new String(bytes, UTF_8);
+    }
+
+    /** Return the length of the line of DATA from START to END, less its
+     *  terminating end-of-line sequence, if any. */
+    private static int lineLength(ByteBuffer data, int start, int end) {
+        if (end > start && data.get(end - 1) == '\n') {
+            end -= 1;
+        }
+        if (end > start && data.get(end - 1) == '\r') {
+            end -= 1;
+        }
+        return end - start;
+    }
+
+    /** Return columns holding the rows of values of TYPES on the lines
+     *  of DATA from START to END.  Lines with the wrong number of values,
+     *  or values not of their column's Type, cause a DBException. */
+    private static ColumnVector[] parse(ByteBuffer data, int start, int end,
+                                        Type[] types) {
+        int numColumns = types.length;
+        ColumnVector[] columns = new ColumnVector[numColumns];
+        for (int c = 0; c < numColumns; c += 1) {
+            columns[c] = ColumnVector.create(types[c]);
+        }
+        byte[] line = new byte[INITIAL_LINE_LENGTH];
+        int[] fieldEnds = new int[numColumns + 1];
+        while (start < end) {
+            int stop = endOfLine(data, start, end);
+            int len = lineLength(data, start, stop);
+            if (len > line.length) {
+                line = new byte[2 * len];
+            }
+            data.get(start, line, 0, len);
+            start = stop;
+
+            int n;
+            n = 0;
+            for (int i = 0; i <= len; i += 1) {
+                if (i == len || line[i] == ',') {
+                    if (n == fieldEnds.length) {
+                        fieldEnds = Arrays.copyOf(fieldEnds, 2 * n);
+                    }
+                    fieldEnds[n] = i;
+                    n += 1;
+                }
+            }
+            while (len > 0 && n > 0) {
+                int first = n == 1 ? 0 : fieldEnds[n - 2] + 1;
+                if (fieldEnds[n - 1] != first) {
+                    break;
+                }
+                n -= 1;
+            }
+            if (n != numColumns) {
+                throw error("inserted row has wrong length");
+            }
+            int fieldStart = 0;
+            for (int c = 0; c < numColumns; c += 1) {
+                String value = new String(line, fieldStart,
+                                          fieldEnds[c] - fieldStart, UTF_8);
+                columns[c].append(value);
+                fieldStart = fieldEnds[c] + 1;
+            }
+        }
+        return columns;
+    }
+
+    /** Initial size of the buffer holding one line. */
+    private static final int INITIAL_LINE_LENGTH = 256;
+}
@@ -0,0 +1,85 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A node in the plan for evaluating a select clause.  Plans are
+ *  pull-based ("Volcano-style") operators: after open(), each call to
+ *  next() computes just enough to produce one more tuple, and close()
+ *  releases whatever the Plan holds.  A tuple is a combination of rows,
+ *  one from each of the tables covered by the Plan; the Plan represents its
+ *  current tuple by positioning the TableIterators of those tables on
+ *  the tuple's rows, so that resolved Columns read its values.
+ *  @author Chen Meng. */
+abstract class Plan {
+
+    /** A Plan producing tuples of rows from the tables of ITERATORS. */
+    Plan(List<TableIterator> iterators) {
+        _iterators = iterators;
+    }
+
+    /** Prepare me so that next() will produce my first tuple.  Opening
+     *  a Plan again without closing it rescans its tuples. */
+    abstract void open();
+
+    /** Proceed to my next tuple, positioning my TableIterators on its
+     *  rows.  Return false if there are no more tuples. */
+    abstract boolean next();
+
+    /** Release any resources I acquired since being opened. */
+    abstract void close();
+
+    /** Return an estimate of the number of tuples I produce. */
+    abstract double estimate();
+
+    /** Return the TableIterators whose rows make up my tuples. */
+    List<TableIterator> iterators() {
+        return _iterators;
+    }
+
+    /** Return true iff C mentions only columns of my tables (or
+     *  literals). */
+    boolean covers(Condition c) {
+        return covers(c.column1()) && covers(c.column2());
+    }
+
+    /** Return true iff COL is a literal or a column of one of my
+     *  tables. */
+    boolean covers(Column col) {
+        return col.source() == null || _iterators.contains(col.source());
+    }
+
+    /** Return true iff I produce my tuples in ascending order of the
+     *  values of COL (by default, false). */
+    boolean sortedOn(Column col) {
+        return false;
+    }
+
+    /** Store the row numbers of my current tuple into TUPLES, starting
+     *  at index K. */
+    void save(int[] tuples, int k) {
+        for (TableIterator it : _iterators) {
+            tuples[k] = it.row();
+            k += 1;
+        }
+    }
+
+    /** Make the tuple stored by save(TUPLES, K) current again. */
+    void restore(int[] tuples, int k) {
+        for (TableIterator it : _iterators) {
+            it.setRow(tuples[k]);
+            k += 1;
+        }
+    }
+
+    /** Return the concatenation of the TableIterators of LEFT and
+     *  RIGHT. */
+    static List<TableIterator> concat(Plan left, Plan right) {
+        ArrayList<TableIterator> result = new ArrayList<>(left.iterators());
+        result.addAll(right.iterators());
+        return result;
+    }
+
+    /** The TableIterators whose rows make up my tuples. */
+    private final List<TableIterator> _iterators;
+}
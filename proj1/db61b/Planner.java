@@ -0,0 +1,265 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Chooses a Plan for the tuples of a select clause.
+ *
+ *  Logically, a select scans each table, filters the combinations of
+ *  rows by the where clause, and projects the selected columns.  The
+ *  Planner rewrites this into something cheaper: each condition that
+ *  mentions only one table is pushed down into the scan of that table,
+ *  which filters it a batch at a time before any join; a table scan
+ *  draws from an index lookup when one of its conditions can use an
+ *  index; and the tables are joined one at a time into a left-deep
+ *  pipeline of joins.  The next table to join is
+ *  the smallest one related to those already joined by an equality
+ *  condition, and that join is a hash join building on the side
+ *  estimated to be smaller.  After each join, the conditions that it
+ *  makes applicable filter its tuples.  Finally, the tuples are sorted
+ *  if an order is requested and the joins do not already produce it.
+ *  Projection is left to the caller, which reads the selected Columns
+ *  for each tuple.
+ *  @author Chen Meng. */
+class Planner {
+
+    /** A Planner for the tuples from the tables of ITERATORS that
+     *  satisfy CONDITIONS, whose Columns must be resolved against
+     *  ITERATORS. */
+    Planner(List<TableIterator> iterators, List<Condition> conditions) {
+        this(iterators, conditions, null);
+    }
+
+    /** A Planner for the tuples from the tables of ITERATORS that
+     *  satisfy CONDITIONS, in order ORDER, or in any order if ORDER is
+     *  null.  The Columns of CONDITIONS and ORDER must be resolved
+     *  against ITERATORS. */
+    Planner(List<TableIterator> iterators, List<Condition> conditions,
+            Ordering order) {
+        _iterators = iterators;
+        _conditions = new ArrayList<>(conditions);
+        _order = order;
+    }
+
+    /** Return a Plan producing my tuples. */
+    Plan plan() {
+        ArrayList<Plan> inputs = new ArrayList<>();
+        for (TableIterator it : _iterators) {
+            inputs.add(access(it));
+        }
+        Plan result = choose(inputs, null);
+        inputs.remove(result);
+        while (!inputs.isEmpty()) {
+            Plan next = choose(inputs, result);
+            inputs.remove(next);
+            result = filter(join(result, next));
+        }
+        result = filter(result);
+        if (_order != null) {
+            result = ordered(result, _order);
+        }
+        return result;
+    }
+
+    /** Return a Plan producing the tuples of INPUT in order ORDER.  This
+     *  is INPUT itself if it is already in that order, or reads its rows
+     *  through an Index if possible, and otherwise sorts them. */
+    private Plan ordered(Plan input, Ordering order) {
+        Column first = order.column(0);
+        if (order.isAscending(first)) {
+            Plan result = inOrder(input, first);
+            if (result != null) {
+                return result;
+            }
+        }
+        return new SortPlan(input, order);
+    }
+
+    /** Return a Plan producing the tuples of INPUT in ascending order of
+     *  the values of COL without sorting them, or null if there is none.
+     *  This is INPUT itself if it is already in that order; a scan of all
+     *  rows of a table may instead read them through an Index on COL. */
+    private Plan inOrder(Plan input, Column col) {
+        if (input.sortedOn(col)) {
+            return input;
+        } else if (input instanceof ScanPlan) {
+            return ((ScanPlan) input).inIndexOrder(col);
+        } else {
+            return null;
+        }
+    }
+
+    /** Return the member of INPUTS to join next to JOINED: the one with
+     *  the smallest estimated size among those related to JOINED by an
+     *  equality condition, if any, and otherwise the smallest of all.
+     *  JOINED is null when choosing the first input. */
+    private Plan choose(List<Plan> inputs, Plan joined) {
+        Plan best = null;
+        boolean bestRelated = false;
+        for (Plan p : inputs) {
+            boolean related =
+                joined != null && joinCondition(joined, p) != null;
+            if (best == null || (related && !bestRelated)
+                || (related == bestRelated
+                    && p.estimate() < best.estimate())) {
+                best = p;
+                bestRelated = related;
+            }
+        }
+        return best;
+    }
+
+    /** Restrict the rows of IT's table to those numbered ROWS, as when
+     *  computing the effect on a materialized View of adding those
+     *  rows. */
+    void restrict(TableIterator it, int[] rows) {
+        _restricted = it;
+        _restrictedRows = rows;
+    }
+
+    /** Return a Plan for the rows of IT's table, filtered by the
+     *  conditions that mention no other table.  Removes those conditions
+     *  from _conditions. */
+    private Plan access(TableIterator it) {
+        ScanPlan scan = new ScanPlan(it);
+        if (it == _restricted) {
+            ArrayList<Condition> applicable = new ArrayList<>();
+            for (Condition c : _conditions) {
+                if (scan.covers(c)) {
+                    applicable.add(c);
+                }
+            }
+            _conditions.removeAll(applicable);
+            return new ScanPlan(it, _restrictedRows, -1, applicable);
+        }
+        ArrayList<Condition> applicable = new ArrayList<>();
+        int[] best = null;
+        int sortedOn = -1;
+        for (Condition c : _conditions) {
+            if (!scan.covers(c)) {
+                continue;
+            }
+            applicable.add(c);
+            int[] rows = c.indexedRows(it);
+            if (rows != null && (best == null || rows.length < best.length)) {
+                best = rows;
+                sortedOn = c.column1().index();
+            }
+        }
+        _conditions.removeAll(applicable);
+        return new ScanPlan(it, best, sortedOn, applicable);
+    }
+
+    /** Return a Plan joining LEFT and RIGHT.  If some equality condition
+     *  relates them, removes that condition from _conditions and uses a
+     *  merge join, when both inputs are in order of its columns without
+     *  sorting or when the requested order is by one of them; an index
+     *  join, when the larger input is a scan of a table with an Index on
+     *  its column and the smaller is much smaller; and otherwise a hash
+     *  join, partitioned and run in parallel if both inputs are
+     *  large.  If there is no such condition, uses a
+     *  nested-loop join with the smaller input as the (rescanned) inner
+     *  input.  The hash table is built on the smaller input, so when
+     *  LEFT is itself a join, its tuples are either streamed through the
+     *  probe side or kept in the hash table as row numbers; they are
+     *  never copied into a Table. */
+    private Plan join(Plan left, Plan right) {
+        Plan small = left, large = right;
+        if (left.estimate() > right.estimate()) {
+            small = right;
+            large = left;
+        }
+        Condition c = joinCondition(small, large);
+        if (c == null) {
+            return new NestedLoopJoinPlan(large, small);
+        }
+        _conditions.remove(c);
+        Column smallKey = c.column1(), largeKey = c.column2();
+        if (!small.covers(smallKey)) {
+            smallKey = c.column2();
+            largeKey = c.column1();
+        }
+        Plan sortedSmall = inOrder(small, smallKey),
+            sortedLarge = inOrder(large, largeKey);
+        if ((sortedSmall != null && sortedLarge != null)
+            || (_order != null
+                && (_order.isAscending(smallKey)
+                    || _order.isAscending(largeKey)))) {
+            if (sortedSmall == null) {
+                sortedSmall =
+                    new SortPlan(small, Ordering.ascending(smallKey));
+            }
+            if (sortedLarge == null) {
+                sortedLarge =
+                    new SortPlan(large, Ordering.ascending(largeKey));
+            }
+            return new MergeJoinPlan(sortedLarge, sortedSmall,
+                                     largeKey, smallKey);
+        }
+        if (large instanceof ScanPlan
+            && INDEX_PROBE_COST * small.estimate() < large.estimate()) {
+            Plan result =
+                ((ScanPlan) large).indexJoin(small, smallKey, largeKey);
+            if (result != null) {
+                return result;
+            }
+        }
+        if (RadixJoinPlan.worthwhile(small.estimate(), large.estimate())) {
+            return new RadixJoinPlan(small, large, smallKey, largeKey);
+        }
+        return new HashJoinPlan(small, large, smallKey, largeKey);
+    }
+
+    /** Return one of _conditions that is an equality between a column of
+     *  A and a column of B whose Types have the same keys, or null if
+     *  there is none. */
+    private Condition joinCondition(Plan a, Plan b) {
+        for (Condition c : _conditions) {
+            if (!c.isEquality()) {
+                continue;
+            }
+            Column c1 = c.column1(), c2 = c.column2();
+            if (c1.source() == null || c2.source() == null
+                || !c1.type().sameKeys(c2.type())) {
+                continue;
+            }
+            if ((a.covers(c1) && b.covers(c2))
+                || (a.covers(c2) && b.covers(c1))) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /** Return a Plan for the tuples of INPUT that satisfy those of
+     *  _conditions that INPUT covers, removing those conditions from
+     *  _conditions. */
+    private Plan filter(Plan input) {
+        ArrayList<Condition> applicable = new ArrayList<>();
+        for (Condition c : _conditions) {
+            if (input.covers(c)) {
+                applicable.add(c);
+            }
+        }
+        if (applicable.isEmpty()) {
+            return input;
+        }
+        _conditions.removeAll(applicable);
+        return new FilterPlan(input, applicable);
+    }
+
+    /** Cost of looking up a value in an Index, relative to that of
+     *  reading a row in a hash join. */
+    private static final int INDEX_PROBE_COST = 8;
+
+    /** The iterators for the tables being selected from. */
+    private final List<TableIterator> _iterators;
+    /** The conditions not yet placed in the Plan. */
+    private final List<Condition> _conditions;
+    /** The requested order of tuples, or null. */
+    private final Ordering _order;
+    /** The iterator whose rows are restricted, or null. */
+    private TableIterator _restricted;
+    /** The rows to which _restricted is restricted. */
+    private int[] _restrictedRows;
+}
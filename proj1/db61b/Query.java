@@ -0,0 +1,198 @@
+package db61b;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The rows selected by a select clause, computed on demand.  A Query
+ *  is the root of a pull-based pipeline: it projects the selected
+ *  Columns from each tuple of its Plan and drops duplicate rows, one row
+ *  per call to next().  Consumers, such as print() and the Table
+ *  constructed from a Query, thus never wait for the whole result, and
+ *  printing needs no memory for the result itself unless duplicates
+ *  must be detected.
+ *
+ *  How duplicates are dropped is a Distinct strategy: remembering the
+ *  rows produced in a Table, which finds them by fingerprint (HASH);
+ *  comparing each row with the one before, when the Plan delivers
+ *  equal rows together, as a sort on all selected Columns does
+ *  (SORTED); or not at all, for consumers that drop them themselves or
+ *  do not care (NONE).
+ *  @author Chen Meng. */
+class Query {
+
+    /** Ways of dropping duplicate rows. */
+    enum Distinct {
+        /** Remember the rows produced so far. */
+        HASH,
+        /** Compare each row with the one before. */
+        SORTED,
+        /** Keep duplicates. */
+        NONE
+    }
+
+    /** Estimated bytes per row remembered by the HASH strategy, apart
+     *  from its values. */
+    static final long ROW_BYTES = 16;
+    /** Estimated bytes per value remembered by the HASH strategy. */
+    static final long VALUE_BYTES = 8;
+
+    /** A Query named NAME producing the distinct values of COLUMNS for
+     *  the tuples of PLAN.  COLUMNS must be resolved against PLAN's
+     *  iterators. */
+    Query(String name, List<Column> columns, Plan plan) {
+        this(name, columns, plan, Distinct.HASH);
+    }
+
+    /** A Query named NAME producing the values of COLUMNS for the tuples
+     *  of PLAN, dropping duplicates by DISTINCT.  COLUMNS must be
+     *  resolved against PLAN's iterators.  If DISTINCT is SORTED, PLAN
+     *  must produce tuples with equal values of COLUMNS together. */
+    Query(String name, List<Column> columns, Plan plan, Distinct distinct) {
+        _name = name;
+        _columns = columns;
+        _plan = plan;
+        _titles = new ArrayList<>();
+        _types = new Type[columns.size()];
+        for (Column c : columns) {
+            _types[_titles.size()] = c.type();
+            _titles.add(c.name());
+        }
+        _distinct = coversAll() ? Distinct.NONE : distinct;
+    }
+
+    /** Return true iff remembering the rows of PLAN, of WIDTH values
+     *  each, to drop duplicates by HASH is estimated to fit within the
+     *  memory budget (see SpillFile). */
+    static boolean hashFits(Plan plan, int width) {
+        return plan.estimate() * (ROW_BYTES + VALUE_BYTES * width)
+            <= SpillFile.budget();
+    }
+
+    /** Return true iff I drop duplicates by remembering the rows I have
+     *  produced. */
+    boolean remembersRows() {
+        return _distinct == Distinct.HASH;
+    }
+
+    /** Produce duplicate rows too, for a consumer, such as a Table, that
+     *  drops them itself. */
+    void keepDuplicates() {
+        _distinct = Distinct.NONE;
+    }
+
+    /** Return my name. */
+    String name() {
+        return _name;
+    }
+
+    /** Return the titles of my columns. */
+    List<String> titles() {
+        return _titles;
+    }
+
+    /** Return the Types of my columns. */
+    Type[] types() {
+        return _types;
+    }
+
+    /** Prepare to produce my first row. */
+    void open() {
+        _plan.open();
+        if (_distinct == Distinct.HASH) {
+            _seen = new Table(_name, titles().toArray(new String[0]),
+                              _types);
+        }
+        _keys = new long[_columns.size()];
+        _previous = null;
+    }
+
+    /** Return my next row, or null if there are no more.  Duplicates
+     *  are detected by the keys of the selected values, so a Row is
+     *  built only for each row returned. */
+    Row next() {
+        while (_plan.next()) {
+            if (_distinct == Distinct.NONE) {
+                return new Row(_columns);
+            }
+            for (int i = 0; i < _keys.length; i += 1) {
+                _keys[i] = _columns.get(i).key();
+            }
+            if (_distinct == Distinct.HASH) {
+                if (_seen.add(_keys)) {
+                    return new Row(_columns);
+                }
+            } else if (_previous == null
+                       || !Arrays.equals(_keys, _previous)) {
+                long[] keys = _previous == null
+                    ? new long[_keys.length] : _previous;
+                _previous = _keys;
+                _keys = keys;
+                return new Row(_columns);
+            }
+        }
+        return null;
+    }
+
+    /** Release the resources held since open(). */
+    void close() {
+        _plan.close();
+        _seen = null;
+        _keys = _previous = null;
+    }
+
+    /** Print my rows on OUTPUT in the format of Table.print, as they
+     *  are produced. */
+    void print(PrintStream output) {
+        open();
+        for (Row r = next(); r != null; r = next()) {
+            Table.print(r, output);
+        }
+        close();
+    }
+
+    /** Return true iff my columns include every column of every table
+     *  in my Plan.  Since each Table holds distinct rows, my rows are
+     *  then distinct without checking. */
+    private boolean coversAll() {
+        for (TableIterator it : _plan.iterators()) {
+            for (int k = 0; k < it.table().numColumns(); k += 1) {
+                boolean found;
+                found = false;
+                for (Column c : _columns) {
+                    if (c.source() == it && c.index() == k) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** My name. */
+    private final String _name;
+    /** The Columns I select. */
+    private final List<Column> _columns;
+    /** The source of my tuples. */
+    private final Plan _plan;
+    /** My column titles. */
+    private final List<String> _titles;
+    /** The Types of my columns. */
+    private final Type[] _types;
+    /** How I drop duplicate rows: NONE if my rows are known to be
+     *  distinct. */
+    private Distinct _distinct;
+    /** The rows produced since open(), used to drop duplicates by
+     *  HASH. */
+    private Table _seen;
+    /** The keys of the values of the current tuple. */
+    private long[] _keys;
+    /** The keys of the values of the last row produced, used to drop
+     *  duplicates by SORTED, or null if there is none. */
+    private long[] _previous;
+}
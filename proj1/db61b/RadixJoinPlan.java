@@ -0,0 +1,391 @@
+package db61b;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** A Plan that joins the tuples of two large Plans on equal values of a
+ *  column from each, on all available processors.  The first time it
+ *  is asked for a tuple, it reads all tuples of both Plans, with their
+ *  keys, into arrays.  It then radix-partitions each side on the top
+ *  bits of a hash of the key, so that equal keys fall into the same
+ *  partition, and joins each pair of partitions in a separate task
+ *  with a hash table small enough to stay in cache.  Each task collects
+ *  at most CHUNK_PAIRS pairs of matching tuples in an array of its own,
+ *  stopping where a further task for the same partition may resume;
+ *  next() steps through these chunks in order on the consumer thread,
+ *  where any remaining conditions are tested by the Plan above.  Only a
+ *  few chunks per processor are in progress or waiting at once, so the
+ *  memory holding output pairs is bounded however many there are.  The
+ *  inputs are kept when I am reopened, and released when I am closed.
+ *  @author Chen Meng. */
+class RadixJoinPlan extends Plan {
+
+    /** Smallest estimated size of the smaller input worth joining in
+     *  parallel. */
+    static final int MIN_PARALLEL_ROWS = 1 << 16;
+
+    /** Desired number of build tuples per partition. */
+    private static final int PARTITION_ROWS = 1 << 12;
+
+    /** Largest number of partitioning bits. */
+    private static final int MAX_BITS = 14;
+
+    /** Approximate bytes used per input tuple of one table. */
+    private static final int TUPLE_BYTES = 24;
+
+    /** Number of tuples partitioned by each task. */
+    private static final int CHUNK_ROWS = 1 << 16;
+
+    /** Largest number of pairs of matching tuples found by one task. */
+    static final int CHUNK_PAIRS = 1 << 16;
+
+    /** Number of chunks per processor in progress or waiting at once. */
+    private static final int CHUNKS_PER_PROCESSOR = 2;
+
+    /** A Plan producing the combinations of tuples of BUILD and PROBE
+     *  for which the values of BUILDKEY and PROBEKEY are equal, as for
+     *  HashJoinPlan, computed on POOL. */
+    RadixJoinPlan(Plan build, Plan probe, Column buildKey, Column probeKey,
+                  ForkJoinPool pool) {
+        super(concat(build, probe));
+        _build = build;
+        _probe = probe;
+        _buildKey = buildKey;
+        _probeKey = probeKey;
+        _pool = pool;
+    }
+
+    /** A Plan producing the combinations of tuples of BUILD and PROBE
+     *  for which the values of BUILDKEY and PROBEKEY are equal, as for
+     *  HashJoinPlan, computed on the common fork-join pool. */
+    RadixJoinPlan(Plan build, Plan probe, Column buildKey,
+                  Column probeKey) {
+        this(build, probe, buildKey, probeKey, ForkJoinPool.commonPool());
+    }
+
+    /** Return true iff joining inputs of estimated sizes SMALL and LARGE
+     *  in parallel is likely to be faster than by a HashJoinPlan.  Since
+     *  I keep both inputs in memory, they must fit within the memory
+     *  budget (see SpillFile.budget). */
+    static boolean worthwhile(double small, double large) {
+        return Math.min(small, large) >= MIN_PARALLEL_ROWS
+            && ForkJoinPool.getCommonPoolParallelism() > 1
+            && TUPLE_BYTES * (small + large) <= SpillFile.budget();
+    }
+
+    @Override
+    void open() {
+        _pending = null;
+        _chunk = null;
+    }
+
+    @Override
+    void close() {
+        _build.close();
+        _probe.close();
+        _buildSide = _probeSide = null;
+        _pending = null;
+        _chunk = null;
+    }
+
+    @Override
+    boolean next() {
+        if (_buildSide == null) {
+            read();
+        }
+        if (_pending == null) {
+            _pending = new ArrayDeque<>();
+            _nextPart = 0;
+            fill();
+        }
+        while (_chunk == null || _pos == _chunk.size) {
+            if (_pending.isEmpty()) {
+                return false;
+            }
+            _chunk = _pending.removeFirst().join();
+            _pos = 0;
+            if (_chunk.resumeAt >= 0) {
+                Chunk chunk = _chunk;
+                _pending.addFirst(_pool.submit(() -> resume(chunk)));
+            }
+            fill();
+        }
+        int[] pairs = _chunk.pairs;
+        _build.restore(_buildSide.tuples, pairs[_pos] * _buildSide.width);
+        _probe.restore(_probeSide.tuples, pairs[_pos + 1] * _probeSide.width);
+        _pos += 2;
+        return true;
+    }
+
+    @Override
+    double estimate() {
+        return Math.max(_build.estimate(), _probe.estimate());
+    }
+
+    /** The tuples of one input, with their keys. */
+    private static class Side {
+        /** Number of row numbers in each tuple. */
+        private int width;
+        /** Number of tuples. */
+        private int size;
+        /** The tuples, each as width row numbers. */
+        private int[] tuples;
+        /** The key of each tuple. */
+        private long[] keys;
+        /** Tuple numbers, grouped by partition. */
+        private int[] order;
+        /** Partition P comprises order[bounds[P] .. bounds[P+1]-1]. */
+        private int[] bounds;
+    }
+
+    /** The pairs of matching tuples found by one task joining a
+     *  partition. */
+    private static class Chunk {
+        /** The number of the partition. */
+        private int partition;
+        /** The partition's hash table of build tuples: heads[S] is one
+         *  more than the index within the partition of the first tuple
+         *  in slot S, or 0 if there is none, and chain[I] is likewise
+         *  for the tuple after tuple I in its slot.  Shared by all
+         *  chunks of the partition. */
+        private int[] heads, chain;
+        /** The pairs, as consecutive elements of pairs[0 .. size-1] (a
+         *  build tuple number followed by a probe tuple number). */
+        private int[] pairs;
+        /** Number of elements of pairs in use. */
+        private int size;
+        /** Index in the probe side's order of the probe tuple at which
+         *  the next chunk of the partition begins, or -1 if this is the
+         *  partition's last chunk. */
+        private int resumeAt;
+        /** The entry in the hash table's chain at which the next chunk
+         *  begins looking up the tuple at resumeAt. */
+        private int entry;
+    }
+
+    /** Read both inputs and partition them. */
+    private void read() {
+        _buildSide = drain(_build, _buildKey);
+        _probeSide = drain(_probe, _probeKey);
+        int parts = Math.max(_buildSide.size / PARTITION_ROWS,
+                             4 * _pool.getParallelism());
+        int bits;
+        for (bits = 1; bits < MAX_BITS && (1 << bits) < parts; bits += 1) {
+            continue;
+        }
+        partition(_buildSide, bits);
+        partition(_probeSide, bits);
+        _parts = 1 << bits;
+    }
+
+    /** Start joining further partitions until CHUNKS_PER_PROCESSOR
+     *  chunks per processor are in progress or waiting, or all have
+     *  been started. */
+    private void fill() {
+        int window = CHUNKS_PER_PROCESSOR * _pool.getParallelism();
+        while (_pending.size() < window && _nextPart < _parts) {
+            int part = _nextPart;
+            _pending.addLast(_pool.submit(() -> joinPartition(part)));
+            _nextPart += 1;
+        }
+    }
+
+    /** Return the tuples of PLAN, with the values of KEY as keys. */
+    private static Side drain(Plan plan, Column key) {
+        Side side = new Side();
+        side.width = plan.iterators().size();
+        side.tuples = new int[INITIAL_CAPACITY * side.width];
+        side.keys = new long[INITIAL_CAPACITY];
+        int n;
+        n = 0;
+        plan.open();
+        while (plan.next()) {
+            if (n == side.keys.length) {
+                side.keys = Arrays.copyOf(side.keys, 2 * n);
+                side.tuples = Arrays.copyOf(side.tuples, 2 * n * side.width);
+            }
+            plan.save(side.tuples, n * side.width);
+            side.keys[n] = key.key();
+            n += 1;
+        }
+        plan.close();
+        side.size = n;
+        return side;
+    }
+
+    /** Return a hash of KEY whose top bits choose its partition and
+     *  whose middle bits choose its slot in a partition's table. */
+    private static long hash(long key) {
+        return key * 0x9E3779B97F4A7C15L;
+    }
+
+    /** Set the order and bounds of SIDE, dividing its tuples into
+     *  2**BITS partitions by the top BITS bits of the hashes of their
+     *  keys.  Each task counts the tuples of one chunk in each
+     *  partition; once the counts determine where each chunk's part of
+     *  each partition starts, each task places the tuples of its chunk
+     *  there. */
+    private void partition(Side side, int bits) {
+        int parts = 1 << bits;
+        int chunks = (side.size + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        int[][] starts = new int[chunks][];
+        ArrayList<ForkJoinTask<int[]>> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c += 1) {
+            int from = c * CHUNK_ROWS;
+            int to = Math.min(side.size, from + CHUNK_ROWS);
+            tasks.add(_pool.submit(() -> {
+                int[] counts = new int[parts];
+                for (int t = from; t < to; t += 1) {
+                    counts[(int) (hash(side.keys[t]) >>> (64 - bits))] += 1;
+                }
+                return counts;
+            }));
+        }
+        for (int c = 0; c < chunks; c += 1) {
+            starts[c] = tasks.get(c).join();
+        }
+        side.bounds = new int[parts + 1];
+        int total;
+        total = 0;
+        for (int p = 0; p < parts; p += 1) {
+            side.bounds[p] = total;
+            for (int c = 0; c < chunks; c += 1) {
+                int count = starts[c][p];
+                starts[c][p] = total;
+                total += count;
+            }
+        }
+        side.bounds[parts] = total;
+        side.order = new int[side.size];
+        ArrayList<ForkJoinTask<?>> scatters = new ArrayList<>();
+        for (int c = 0; c < chunks; c += 1) {
+            int from = c * CHUNK_ROWS;
+            int to = Math.min(side.size, from + CHUNK_ROWS);
+            int[] next = starts[c];
+            scatters.add(_pool.submit(() -> {
+                for (int t = from; t < to; t += 1) {
+                    int p = (int) (hash(side.keys[t]) >>> (64 - bits));
+                    side.order[next[p]] = t;
+                    next[p] += 1;
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : scatters) {
+            task.join();
+        }
+    }
+
+    /** Return the first chunk of the pairs of matching tuples in
+     *  partition P of the two sides, building its hash table. */
+    private Chunk joinPartition(int p) {
+        Side build = _buildSide, probe = _probeSide;
+        Chunk chunk = new Chunk();
+        chunk.partition = p;
+        int from = build.bounds[p], n = build.bounds[p + 1] - from;
+        if (n == 0 || probe.bounds[p] == probe.bounds[p + 1]) {
+            chunk.pairs = new int[0];
+            chunk.resumeAt = -1;
+            return chunk;
+        }
+        int size;
+        for (size = 2; size < 2 * n; size *= 2) {
+            continue;
+        }
+        int mask = size - 1;
+        chunk.heads = new int[size];
+        chunk.chain = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            int s = (int) (hash(build.keys[build.order[from + i]]) >>> 16)
+                & mask;
+            chunk.chain[i] = chunk.heads[s];
+            chunk.heads[s] = i + 1;
+        }
+        return probe(chunk, probe.bounds[p], -1);
+    }
+
+    /** Return the chunk of pairs of matching tuples that follows
+     *  PREVIOUS in its partition. */
+    private Chunk resume(Chunk previous) {
+        Chunk chunk = new Chunk();
+        chunk.partition = previous.partition;
+        chunk.heads = previous.heads;
+        chunk.chain = previous.chain;
+        return probe(chunk, previous.resumeAt, previous.entry);
+    }
+
+    /** Fill in the pairs of CHUNK, whose partition and hash table are
+     *  set, by looking up the probe tuples of its partition from index
+     *  J in the probe side's order, starting (for the first) at entry E
+     *  of the hash table's chains, or at the head of its slot if E is
+     *  -1.  Stops after CHUNK_PAIRS pairs.  Return CHUNK. */
+    private Chunk probe(Chunk chunk, int j, int e) {
+        Side build = _buildSide, probe = _probeSide;
+        int p = chunk.partition;
+        int from = build.bounds[p];
+        int mask = chunk.heads.length - 1;
+        int[] pairs = new int[INITIAL_CAPACITY];
+        int m;
+        m = 0;
+        chunk.resumeAt = -1;
+        for (; j < probe.bounds[p + 1]; j += 1, e = -1) {
+            int t = probe.order[j];
+            long key = probe.keys[t];
+            if (e == -1) {
+                e = chunk.heads[(int) (hash(key) >>> 16) & mask];
+            }
+            for (; e != 0; e = chunk.chain[e - 1]) {
+                if (m == 2 * CHUNK_PAIRS) {
+                    chunk.resumeAt = j;
+                    chunk.entry = e;
+                    break;
+                }
+                int b = build.order[from + e - 1];
+                if (build.keys[b] == key) {
+                    if (m == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, 2 * m);
+                    }
+                    pairs[m] = b;
+                    pairs[m + 1] = t;
+                    m += 2;
+                }
+            }
+            if (chunk.resumeAt >= 0) {
+                break;
+            }
+        }
+        chunk.pairs = pairs;
+        chunk.size = m;
+        return chunk;
+    }
+
+    /** Initial capacity of growing arrays, in elements. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The Plan whose tuples fill the partitions' hash tables. */
+    private final Plan _build;
+    /** The Plan whose tuples are looked up in the hash tables. */
+    private final Plan _probe;
+    /** The join column of _build. */
+    private final Column _buildKey;
+    /** The join column of _probe. */
+    private final Column _probeKey;
+    /** The pool on which partitions are formed and joined. */
+    private final ForkJoinPool _pool;
+    /** The tuples of _build and of _probe, or null before they are
+     *  read. */
+    private Side _buildSide, _probeSide;
+    /** Number of partitions of each side. */
+    private int _parts;
+    /** The number of the next partition to start joining. */
+    private int _nextPart;
+    /** The chunks in progress or waiting, in order; null until I start
+     *  joining after being opened. */
+    private ArrayDeque<ForkJoinTask<Chunk>> _pending;
+    /** The chunk holding the next pair, or null if none is taken. */
+    private Chunk _chunk;
+    /** Index in _chunk.pairs of the next pair. */
+    private int _pos;
+}
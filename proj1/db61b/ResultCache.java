@@ -0,0 +1,155 @@
+package db61b;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A cache of the results of select statements, so that a statement
+ *  repeated while the tables it reads are unchanged is answered without
+ *  being evaluated again.  Results are keyed by the statement's tokens,
+ *  which ignore layout and comments.  A result remains valid while each
+ *  table its statement read is still the Table of that name in the
+ *  database, with the version it had when the result was computed;
+ *  adding to or replacing a table also removes the results that read it
+ *  at once.  To keep their total estimated size within a capacity,
+ *  results are evicted least recently used first.  One cache may serve
+ *  several threads, so its methods synchronize.
+ *  @author Chen Meng. */
+class ResultCache {
+
+    /** Name of the system property giving the capacity, in bytes. */
+    static final String CAPACITY_PROPERTY = "db61b.cache";
+
+    /** Default capacity, in bytes: none, so that caching is opt-in.  A
+     *  select whose result may be cached collects its rows as it prints
+     *  them, which a select that streams a large result cannot
+     *  afford. */
+    static final long DEFAULT_CAPACITY = 0;
+
+    /** An empty cache with the capacity given by CAPACITY_PROPERTY, or
+     *  DEFAULT_CAPACITY if it is not set. */
+    ResultCache() {
+        this(Long.getLong(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    /** An empty cache holding results of at most CAPACITY bytes in all.
+     *  A capacity of 0 disables caching. */
+    ResultCache(long capacity) {
+        _capacity = capacity;
+    }
+
+    /** Return my capacity, in bytes. */
+    long capacity() {
+        return _capacity;
+    }
+
+    /** Return the estimated size in bytes of TABLE, as stored in me. */
+    static long bytes(Table table) {
+        return ROW_BYTES * table.size()
+            + VALUE_BYTES * table.size() * table.numColumns();
+    }
+
+    /** Return the cached result of STATEMENT, if it is still valid for
+     *  the tables in DATABASE, and otherwise null. */
+    synchronized Table get(String statement, Map<String, Table> database) {
+        Entry entry = _entries.get(statement);
+        if (entry == null) {
+            return null;
+        }
+        for (int i = 0; i < entry.tables.length; i += 1) {
+            Table table = entry.tables[i];
+            if (database.get(entry.names[i]) != table
+                || table.version() != entry.versions[i]) {
+                remove(statement);
+                return null;
+            }
+        }
+        return entry.result;
+    }
+
+    /** Record that RESULT is the result of STATEMENT, which reads the
+     *  snapshots of SOURCES, evicting older results as needed.  Does
+     *  nothing if RESULT alone exceeds my capacity. */
+    synchronized void put(String statement, Table result,
+                          List<TableIterator> sources) {
+        long bytes = bytes(result);
+        if (bytes > _capacity) {
+            return;
+        }
+        remove(statement);
+        Entry entry = new Entry();
+        entry.result = result;
+        entry.bytes = bytes;
+        entry.tables = new Table[sources.size()];
+        entry.names = new String[entry.tables.length];
+        entry.versions = new long[entry.tables.length];
+        for (int i = 0; i < entry.tables.length; i += 1) {
+            entry.tables[i] = sources.get(i).table();
+            entry.names[i] = entry.tables[i].name();
+            entry.versions[i] = sources.get(i).version();
+        }
+        _entries.put(statement, entry);
+        _bytes += bytes;
+        Iterator<Entry> eldest = _entries.values().iterator();
+        while (_bytes > _capacity) {
+            _bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    /** Remove the results that read TABLE, or any materialized View that
+     *  reads TABLE, directly or indirectly. */
+    synchronized void invalidate(Table table) {
+        Iterator<Entry> entries = _entries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            for (Table t : entry.tables) {
+                if (t == table) {
+                    _bytes -= entry.bytes;
+                    entries.remove();
+                    break;
+                }
+            }
+        }
+        for (View view : table.dependents()) {
+            invalidate(view.table());
+        }
+    }
+
+    /** Remove the result of STATEMENT, if cached. */
+    private void remove(String statement) {
+        Entry entry = _entries.remove(statement);
+        if (entry != null) {
+            _bytes -= entry.bytes;
+        }
+    }
+
+    /** A cached result. */
+    private static class Entry {
+        /** The rows of the result. */
+        private Table result;
+        /** Estimated size of result, in bytes. */
+        private long bytes;
+        /** The tables read in computing the result. */
+        private Table[] tables;
+        /** The names of the tables under which they were read. */
+        private String[] names;
+        /** The versions of the tables when they were read. */
+        private long[] versions;
+    }
+
+    /** Estimated bytes per row of a result, apart from its values. */
+    private static final long ROW_BYTES = 12;
+    /** Estimated bytes per value of a result. */
+    private static final long VALUE_BYTES = 8;
+
+    /** Largest total estimated size of my results, in bytes. */
+    private final long _capacity;
+    /** Total estimated size of my results, in bytes. */
+    private long _bytes;
+    /** The cached results, by statement, from least to most recently
+     *  used. */
+    private final LinkedHashMap<String, Entry> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+}
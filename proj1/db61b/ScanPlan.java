@@ -0,0 +1,199 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/** A Plan that produces the rows of a single table that satisfy a list
+ *  of Conditions, drawn either from all rows or from those that an
+ *  index gives for some condition.  Rows are filtered a batch at a
+ *  time: each batch of up to BATCH_SIZE row numbers is a selection
+ *  vector that each condition's BatchFilter narrows in turn, so the
+ *  tests run as tight loops over column arrays rather than once per
+ *  row through the Plan interface.  next() then steps through the
+ *  survivors.
+ *
+ *  When there are many candidate rows, the conditions that have
+ *  kernels are instead applied up front by a MorselScan on all
+ *  processors.  Its result is kept until I am closed, and the other
+ *  conditions filter it a batch at a time as before.
+ *  @author Chen Meng. */
+class ScanPlan extends Plan {
+
+    /** Number of rows filtered together. */
+    static final int BATCH_SIZE = 2048;
+
+    /** A Plan producing all rows of the table of IT. */
+    ScanPlan(TableIterator it) {
+        this(it, null, -1, Arrays.asList());
+    }
+
+    /** A Plan producing the rows of the table of IT whose numbers are
+     *  ROWS, or all rows if ROWS is null, that satisfy CONDITIONS.
+     *  CONDITIONS must mention only columns of IT's table.  If SORTEDON
+     *  is not -1, ROWS are in ascending order of their values in column
+     *  number SORTEDON, as when they come from an Index. */
+    ScanPlan(TableIterator it, int[] rows, int sortedOn,
+             List<Condition> conditions) {
+        super(Arrays.asList(it));
+        _it = it;
+        _rows = rows;
+        _sortedOn = sortedOn;
+        _conditions = conditions;
+        ArrayList<BatchFilter> kernels = new ArrayList<>(),
+            filters = new ArrayList<>();
+        double selectivity = 1.0;
+        for (Condition c : conditions) {
+            BatchFilter kernel = c.kernel();
+            if (kernel != null) {
+                kernels.add(kernel);
+            } else {
+                filters.add(c.compileBatch());
+            }
+            selectivity *= c.selectivity();
+        }
+        _kernels = kernels.toArray(new BatchFilter[kernels.size()]);
+        _filters = filters.toArray(new BatchFilter[filters.size()]);
+        _estimate = selectivity
+            * (_rows == null ? _it.size() : _rows.length);
+    }
+
+    @Override
+    void open() {
+        _next = _pos = _count = 0;
+        if (_sel == null) {
+            _sel = new int[BATCH_SIZE];
+        }
+    }
+
+    @Override
+    void close() {
+        _sel = null;
+        _matches = null;
+    }
+
+    @Override
+    boolean next() {
+        while (_pos == _count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        _it.setRow(_sel[_pos]);
+        _pos += 1;
+        return true;
+    }
+
+    @Override
+    double estimate() {
+        return _estimate;
+    }
+
+    @Override
+    boolean sortedOn(Column col) {
+        return col.source() == _it && col.index() == _sortedOn;
+    }
+
+    /** Return a Plan producing my rows in ascending order of their values
+     *  in COL, read through an Index on COL, or null if I do not draw
+     *  from all rows of my table or there is no such Index. */
+    ScanPlan inIndexOrder(Column col) {
+        if (_rows != null || col.source() != _it) {
+            return null;
+        }
+        Index index = _it.index(col.index());
+        if (index == null) {
+            return null;
+        }
+        return new ScanPlan(_it, index.sortedRows(_it.size()), col.index(),
+                            _conditions);
+    }
+
+    /** Return a Plan producing the combinations of the tuples of OUTER
+     *  with those of my rows whose values in COL equal the value of
+     *  OUTERKEY, found through an Index on COL, or null if I do not draw
+     *  from all rows of my table or there is no such Index. */
+    Plan indexJoin(Plan outer, Column outerKey, Column col) {
+        if (_rows != null || col.source() != _it) {
+            return null;
+        }
+        Index index = _it.index(col.index());
+        if (index == null) {
+            return null;
+        }
+        return new IndexJoinPlan(outer, _it, outerKey, index, _conditions);
+    }
+
+    /** Store the row numbers of the N candidates starting with the
+     *  one at index START into SEL.  The candidates are ROWS, or all
+     *  rows in order if ROWS is null. */
+    static void candidates(int[] rows, int start, int[] sel, int n) {
+        if (rows == null) {
+            for (int i = 0; i < n; i += 1) {
+                sel[i] = start + i;
+            }
+        } else {
+            System.arraycopy(rows, start, sel, 0, n);
+        }
+    }
+
+    /** Load the next batch of candidate rows into _sel and filter it.
+     *  Return false if there are no more candidates. */
+    private boolean fill() {
+        int total = _rows == null ? _it.size() : _rows.length;
+        if (_matches == null && _kernels.length > 0
+            && MorselScan.worthwhile(total)) {
+            _matches = MorselScan.select(_rows, total, _kernels,
+                                         ForkJoinPool.commonPool());
+        }
+        int[] rows = _matches == null ? _rows : _matches;
+        if (_matches != null) {
+            total = _matches.length;
+        }
+        if (_next >= total) {
+            return false;
+        }
+        int n = Math.min(BATCH_SIZE, total - _next);
+        candidates(rows, _next, _sel, n);
+        _next += n;
+        for (int k = 0; _matches == null && k < _kernels.length && n > 0;
+             k += 1) {
+            n = _kernels[k].filter(_sel, n);
+        }
+        for (int k = 0; k < _filters.length && n > 0; k += 1) {
+            n = _filters[k].filter(_sel, n);
+        }
+        _pos = 0;
+        _count = n;
+        return true;
+    }
+
+    /** The iterator I position. */
+    private final TableIterator _it;
+    /** The row numbers I draw from, or null for all rows. */
+    private final int[] _rows;
+    /** The column in whose order _rows are, or -1. */
+    private final int _sortedOn;
+    /** The conditions my rows satisfy. */
+    private final List<Condition> _conditions;
+    /** Filters for my conditions that are kernels, which may run in
+     *  parallel. */
+    private final BatchFilter[] _kernels;
+    /** Filters for my other conditions. */
+    private final BatchFilter[] _filters;
+    /** Estimated number of rows produced. */
+    private final double _estimate;
+    /** The candidate rows that passed _kernels in a MorselScan, or null
+     *  if there has been no MorselScan since I was last closed. */
+    private int[] _matches;
+    /** Index among the candidates of the first one not yet loaded into
+     *  _sel. */
+    private int _next;
+    /** The selection vector: rows of the current batch that passed. */
+    private int[] _sel;
+    /** Index in _sel of my next row. */
+    private int _pos;
+    /** Number of rows of the current batch in _sel. */
+    private int _count;
+}
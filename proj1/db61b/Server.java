@@ -0,0 +1,140 @@
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentMap;
+
+import static db61b.Utils.*;
+
+/** Serves one database to many clients, which connect through sockets
+ *  on the local host.  Each client gets a thread running its own
+ *  CommandInterpreter, which reads statements from the connection and
+ *  writes prompts and results back to it.  All clients share the
+ *  tables, the result cache, and the log.
+ *
+ *  Clients do not wait for each other: inserts lock a table only while
+ *  a row is added, and each select reads a snapshot of each of its
+ *  tables as of when the statement started (see Table), so a long
+ *  select neither blocks inserts nor sees their rows.
+ *  @author Chen Meng. */
+class Server {
+
+    /** Name of the system property giving the port to serve on; Main
+     *  reads from the standard input instead unless it is set. */
+    static final String PORT_PROPERTY = "db61b.port";
+
+    /** Number of connections that may wait to be accepted. */
+    private static final int BACKLOG = 50;
+    /** Number of failures to accept a client in a row after which I
+     *  stop serving. */
+    private static final int MAX_FAILURES = 10;
+    /** Pause after the first failure to accept a client, in
+     *  milliseconds; it doubles with each further failure in a row. */
+    private static final long BACKOFF_MILLIS = 10;
+
+    /** A server on local port PORT (any free port if 0) for DATABASE,
+     *  whose clients share CACHE and LOG, which may be null. */
+    Server(int port, ConcurrentMap<String, Table> database,
+           ResultCache cache, Log log) {
+        _database = database;
+        _cache = cache;
+        _log = log;
+        try {
+            _socket = new ServerSocket(port, BACKLOG,
+                                       InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw error("cannot listen on port %d", port);
+        }
+    }
+
+    /** Return the port on which I listen. */
+    int port() {
+        return _socket.getLocalPort();
+    }
+
+    /** Accept clients and start a thread serving each, until close() is
+     *  called.  A failure to accept a client, such as running out of
+     *  file descriptors, is reported on the standard error and followed
+     *  by a pause, longer for each failure in a row; after MAX_FAILURES
+     *  of them, I close. */
+    void run() {
+        int failures = 0;
+        while (!_socket.isClosed()) {
+            Socket client;
+            try {
+                client = _socket.accept();
+                failures = 0;
+            } catch (IOException e) {
+                if (_socket.isClosed()) {
+                    break;
+                }
+                failures += 1;
+                System.err.printf("Error: cannot accept client: %s%n",
+                                  e.getMessage());
+                if (failures >= MAX_FAILURES) {
+                    System.err.println("Error: too many failures; "
+                                       + "no longer serving");
+                    close();
+                    break;
+                }
+                pause(BACKOFF_MILLIS << (failures - 1));
+                continue;
+            }
+            Thread thread = new Thread(() -> serve(client));
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stop accepting clients.  Clients already connected are served
+     *  until they quit. */
+    void close() {
+        try {
+            _socket.close();
+        } catch (IOException e) {
+            /* Ignore IOException */
+        }
+    }
+
+    /** Wait for MILLIS milliseconds, or until interrupted. */
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            /* Ignore InterruptedException */
+        }
+    }
+
+    /** Execute the statements that CLIENT sends until it quits or
+     *  disconnects, and then close the connection. */
+    private void serve(Socket client) {
+        try (Socket socket = client) {
+            InputStreamReader input =
+                new InputStreamReader(socket.getInputStream(), "UTF-8");
+            PrintStream output =
+                new PrintStream(new BufferedOutputStream(
+                    socket.getOutputStream()), false, "UTF-8");
+            CommandInterpreter interpreter =
+                new CommandInterpreter(_database, _cache, _log,
+                                       input, output, output);
+            Main.run(interpreter, output);
+            output.flush();
+        } catch (IOException e) {
+            /* Ignore IOException: the client has gone. */
+        }
+    }
+
+    /** The tables, by name. */
+    private final ConcurrentMap<String, Table> _database;
+    /** Results of select statements. */
+    private final ResultCache _cache;
+    /** The log, or null if there is none. */
+    private final Log _log;
+    /** The socket on which clients connect. */
+    private final ServerSocket _socket;
+}
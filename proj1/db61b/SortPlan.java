@@ -0,0 +1,200 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/** A Plan that produces the tuples of another Plan in a given
+ *  Ordering.  The first time it is asked for a tuple, it reads all
+ *  tuples of its input, with the keys they are ordered by, into
+ *  arrays, and sorts the tuple numbers.  The sorted tuples are kept when
+ *  I am reopened, and released when I am closed.
+ *
+ *  If the arrays would exceed the memory budget (see SpillFile.budget),
+ *  each arrayful is instead sorted and written to a SpillFile as a
+ *  sorted run, and next() merges the runs, reading each run once from
+ *  its start.
+ *  @author Chen Meng. */
+class SortPlan extends Plan {
+
+    /** A Plan producing the tuples of CHILD in order ORDER, whose Columns
+     *  must belong to CHILD's tables. */
+    SortPlan(Plan child, Ordering order) {
+        super(child.iterators());
+        _child = child;
+        _order = order;
+    }
+
+    @Override
+    void open() {
+        _next = 0;
+        if (_runs != null) {
+            startMerge();
+        }
+    }
+
+    @Override
+    void close() {
+        _child.close();
+        _tuples = null;
+        _keys = null;
+        _sorted = null;
+        if (_runs != null) {
+            for (SpillFile run : _runs) {
+                run.close();
+            }
+            _runs = null;
+        }
+    }
+
+    @Override
+    boolean next() {
+        if (_sorted == null && _runs == null) {
+            sort();
+        }
+        if (_runs != null) {
+            return merge();
+        }
+        if (_next == _size) {
+            return false;
+        }
+        _child.restore(_tuples, _sorted[_next] * _width);
+        _next += 1;
+        return true;
+    }
+
+    @Override
+    double estimate() {
+        return _child.estimate();
+    }
+
+    @Override
+    boolean sortedOn(Column col) {
+        return _order.isAscending(col);
+    }
+
+    /** Read and sort the tuples of _child, spilling sorted runs if they
+     *  exceed the memory budget. */
+    private void sort() {
+        _width = _child.iterators().size();
+        int k = _order.size();
+        long limit = SpillFile.budget() / (4 * _width + 8 * k + 4);
+        _tuples = new int[INITIAL_CAPACITY * _width];
+        _keys = new long[INITIAL_CAPACITY * k];
+        int n;
+        n = 0;
+        _child.open();
+        while (_child.next()) {
+            if (n >= limit && n > 0) {
+                spill(n);
+                n = 0;
+            }
+            if (n * k == _keys.length) {
+                _keys = Arrays.copyOf(_keys, 2 * _keys.length);
+                _tuples = Arrays.copyOf(_tuples, 2 * n * _width);
+            }
+            _child.save(_tuples, n * _width);
+            _order.keys(_keys, n * k);
+            n += 1;
+        }
+        _child.close();
+        if (_runs == null) {
+            sortArrays(n);
+        } else {
+            spill(n);
+            _tuples = null;
+            _keys = null;
+            _sorted = null;
+            startMerge();
+        }
+    }
+
+    /** Set _size to N and _sorted to the numbers of the first N tuples
+     *  in _tuples, in sorted order. */
+    private void sortArrays(int n) {
+        int k = _order.size();
+        long[] keys = _keys;
+        _size = n;
+        _sorted = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            _sorted[i] = i;
+        }
+        Ordering.sort(_sorted, n,
+                      (i, j) -> _order.compare(keys, i * k, keys, j * k));
+    }
+
+    /** Sort the first N tuples in _tuples and write them to a new run. */
+    private void spill(int n) {
+        if (_runs == null) {
+            _runs = new ArrayList<>();
+        }
+        int k = _order.size();
+        sortArrays(n);
+        SpillFile run = new SpillFile(_width, k);
+        for (int i = 0; i < n; i += 1) {
+            run.write(_tuples, _sorted[i] * _width, _keys, _sorted[i] * k);
+        }
+        _runs.add(run);
+    }
+
+    /** Prepare to merge the runs from their starts. */
+    private void startMerge() {
+        int n = _runs.size(), k = _order.size();
+        _heads = new int[n][_width];
+        _headKeys = new long[n][k];
+        _merge = new PriorityQueue<>(Math.max(1, n), (r1, r2) -> {
+            int cmp = _order.compare(_headKeys[r1], 0, _headKeys[r2], 0);
+            return cmp != 0 ? cmp : r1 - r2;
+        });
+        for (int r = 0; r < n; r += 1) {
+            _runs.get(r).rewind();
+            if (_runs.get(r).read(_heads[r], 0, _headKeys[r], 0)) {
+                _merge.add(r);
+            }
+        }
+    }
+
+    /** Make the first unmerged tuple of all runs current.  Return false
+     *  if there is none. */
+    private boolean merge() {
+        Integer r = _merge.poll();
+        if (r == null) {
+            return false;
+        }
+        _child.restore(_heads[r], 0);
+        if (_runs.get(r).read(_heads[r], 0, _headKeys[r], 0)) {
+            _merge.add(r);
+        }
+        return true;
+    }
+
+    /** Initial capacity of the tuple arrays, in tuples. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The source of my tuples. */
+    private final Plan _child;
+    /** The order of my tuples. */
+    private final Ordering _order;
+    /** Number of row numbers in each tuple. */
+    private int _width;
+    /** Number of tuples in the arrays. */
+    private int _size;
+    /** The tuples of _child, each as _width row numbers. */
+    private int[] _tuples;
+    /** The keys of the tuples in _tuples, as stored by Ordering.keys. */
+    private long[] _keys;
+    /** The numbers of the tuples in _tuples, in sorted order; null until
+     *  they have been read, or if they were spilled. */
+    private int[] _sorted;
+    /** Index in _sorted of my next tuple. */
+    private int _next;
+    /** The sorted runs, or null if none have been spilled. */
+    private ArrayList<SpillFile> _runs;
+    /** The first unmerged tuple of each run. */
+    private int[][] _heads;
+    /** The keys of the tuples in _heads. */
+    private long[][] _headKeys;
+    /** The numbers of the runs having unmerged tuples, in the order of
+     *  their first unmerged tuples. */
+    private PriorityQueue<Integer> _merge;
+}
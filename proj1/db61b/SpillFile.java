@@ -0,0 +1,159 @@
+package db61b;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import static java.nio.file.StandardOpenOption.*;
+import static db61b.Utils.*;
+
+/** A temporary file of fixed-size records, each a number of ints (such
+ *  as the row numbers of a tuple) followed by a number of longs (such
+ *  as keys), used by operators that exceed the memory budget.  Records
+ *  are all written first, and then read back in order, any number of
+ *  times, after rewind().  The file is deleted when closed.
+ *  @author Chen Meng. */
+class SpillFile {
+
+    /** Name of the system property giving the memory budget, in
+     *  bytes. */
+    static final String BUDGET_PROPERTY = "db61b.memory";
+
+    /** Size of the I/O buffer, in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Return the number of bytes that a sort or join may use for its
+     *  arrays before spilling to temporary files: the value of the
+     *  system property BUDGET_PROPERTY if set, and otherwise a quarter
+     *  of the maximum heap size. */
+    static long budget() {
+        return Long.getLong(BUDGET_PROPERTY,
+                            Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /** A new, empty temporary file of records of INTS ints and LONGS
+     *  longs. */
+    SpillFile(int ints, int longs) {
+        _ints = ints;
+        _longs = longs;
+        _recordSize = 4 * ints + 8 * longs;
+        _buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, _recordSize));
+        try {
+            _channel =
+                FileChannel.open(Files.createTempFile("db61b", ".spill"),
+                                 READ, WRITE, DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw error("could not create temporary file");
+        }
+    }
+
+    /** Return the number of records written. */
+    int size() {
+        return _size;
+    }
+
+    /** Append a record holding INTS[I .. I+n-1] and LONGS[J .. J+m-1],
+     *  where n and m are the numbers of ints and longs per record. */
+    void write(int[] ints, int i, long[] longs, int j) {
+        if (_buffer.remaining() < _recordSize) {
+            flush();
+        }
+        for (int k = 0; k < _ints; k += 1) {
+            _buffer.putInt(ints[i + k]);
+        }
+        for (int k = 0; k < _longs; k += 1) {
+            _buffer.putLong(longs[j + k]);
+        }
+        _size += 1;
+    }
+
+    /** Prepare to read my records from the first, ending any
+     *  writing. */
+    void rewind() {
+        if (!_reading) {
+            flush();
+            _reading = true;
+        }
+        _readPosition = 0;
+        _unread = _size;
+        _buffer.clear().limit(0);
+    }
+
+    /** Read my next record into INTS[I ..] and LONGS[J ..], as stored
+     *  by write.  Return false if there are no more records. */
+    boolean read(int[] ints, int i, long[] longs, int j) {
+        if (_unread == 0) {
+            return false;
+        }
+        if (_buffer.remaining() < _recordSize) {
+            refill();
+        }
+        for (int k = 0; k < _ints; k += 1) {
+            ints[i + k] = _buffer.getInt();
+        }
+        for (int k = 0; k < _longs; k += 1) {
+            longs[j + k] = _buffer.getLong();
+        }
+        _unread -= 1;
+        return true;
+    }
+
+    /** Delete me. */
+    void close() {
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            /* Ignore IOException */
+        }
+    }
+
+    /** Write out the contents of _buffer and empty it. */
+    private void flush() {
+        _buffer.flip();
+        try {
+            while (_buffer.hasRemaining()) {
+                _channel.write(_buffer, _channel.size());
+            }
+        } catch (IOException e) {
+            throw error("trouble writing to temporary file");
+        }
+        _buffer.clear();
+    }
+
+    /** Add to the unread contents of _buffer at least one record. */
+    private void refill() {
+        _buffer.compact();
+        try {
+            while (_buffer.position() < _recordSize) {
+                int n = _channel.read(_buffer, _readPosition);
+                if (n < 0) {
+                    throw error("temporary file is truncated");
+                }
+                _readPosition += n;
+            }
+        } catch (IOException e) {
+            throw error("problem reading from temporary file");
+        }
+        _buffer.flip();
+    }
+
+    /** Number of ints per record. */
+    private final int _ints;
+    /** Number of longs per record. */
+    private final int _longs;
+    /** Size of a record, in bytes. */
+    private final int _recordSize;
+    /** Buffer for records being written or read. */
+    private final ByteBuffer _buffer;
+    /** The temporary file. */
+    private final FileChannel _channel;
+    /** Number of records written. */
+    private int _size;
+    /** True once writing has ended. */
+    private boolean _reading;
+    /** File position of the first byte not yet read into _buffer. */
+    private long _readPosition;
+    /** Number of records not yet read since rewind(). */
+    private int _unread;
+}
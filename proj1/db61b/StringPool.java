@@ -0,0 +1,69 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A database-wide dictionary of the distinct strings stored in tables.
+ *  Each distinct string gets a small, permanent integer code, and
+ *  columns store codes instead of strings.  Because all columns share
+ *  this one pool, two values (in any columns of any tables) are equal
+ *  iff their codes are equal.
+ *  @author Chen Meng. */
+class StringPool {
+
+    /** Return the code for S, assigning a new one if S has not been
+     *  seen before. */
+    static int code(String s) {
+        Integer code = CODES.get(s);
+        if (code != null) {
+            return code;
+        }
+        synchronized (CODES) {
+            code = CODES.get(s);
+            if (code != null) {
+                return code;
+            }
+            String[] values = _values;
+            if (_count == values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            values[_count] = s;
+            _values = values;
+            CODES.put(s, _count);
+            _count += 1;
+            return _count - 1;
+        }
+    }
+
+    /** Return the code for S, or -1 if S has not been seen before, in
+     *  which case no column holds S.  Unlike code(S), never adds S to
+     *  the pool, which is never emptied, so it suits values that are
+     *  only looked up, such as literals in conditions. */
+    static int find(String s) {
+        Integer code = CODES.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /** Return the string whose code is CODE. */
+    static String value(int code) {
+        return _values[code];
+    }
+
+    /** Return the number of distinct strings in the pool. */
+    static int size() {
+        return _count;
+    }
+
+    /** Initial capacity of the pool. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Maps strings to their codes. */
+    private static final ConcurrentHashMap<String, Integer> CODES =
+        new ConcurrentHashMap<>();
+    /** Maps codes to their strings.  A new string is stored here before
+     *  its code is published in CODES, so any code obtained from CODES
+     *  is valid here. */
+    private static volatile String[] _values = new String[INITIAL_CAPACITY];
+    /** Number of codes assigned. */
+    private static int _count;
+}
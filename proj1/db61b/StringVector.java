@@ -0,0 +1,143 @@
+package db61b;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A ColumnVector of strings.  Values are dictionary encoded: the
+ *  array holds StringPool codes, which also serve as keys, so repeated
+ *  values share one String and equal values have equal codes.
+ *  @author Chen Meng. */
+class StringVector extends ColumnVector {
+
+    /** An empty StringVector. */
+    StringVector() {
+        _codes = new int[INITIAL_CAPACITY];
+    }
+
+    @Override
+    Type type() {
+        return Type.STRING;
+    }
+
+    @Override
+    String get(int r) {
+        decodeIfNeeded();
+        return StringPool.value(_codes[r]);
+    }
+
+    @Override
+    long key(int r) {
+        decodeIfNeeded();
+        return _codes[r];
+    }
+
+    @Override
+    long keyOf(String value) {
+        return StringPool.code(value);
+    }
+
+    @Override
+    Long findKey(String value) {
+        int code = StringPool.find(value);
+        return code < 0 ? null : (long) code;
+    }
+
+    @Override
+    String valueOf(long key) {
+        return StringPool.value((int) key);
+    }
+
+    @Override
+    int compareKeys(long k1, long k2) {
+        return k1 == k2 ? 0 : valueOf(k1).compareTo(valueOf(k2));
+    }
+
+    /** {@inheritDoc}  Since equal strings share a StringPool code,
+     *  this compares codes, never strings. */
+    @Override
+    int selectKey(long key, boolean equal, int[] sel, int n) {
+        decodeIfNeeded();
+        int[] codes = _codes;
+        int m;
+        m = 0;
+        for (int i = 0; i < n; i += 1) {
+            int r = sel[i];
+            sel[m] = r;
+            m += (codes[r] == key) == equal ? 1 : 0;
+        }
+        return m;
+    }
+
+    /** {@inheritDoc}  The buffer holds a dictionary (a count followed by
+     *  that many strings, each a byte count and UTF-8 bytes) of the
+     *  distinct values among the first N, and then N indices into the
+     *  dictionary. */
+    @Override
+    ByteBuffer encode(int n) {
+        HashMap<Integer, Integer> local = new HashMap<>();
+        ArrayList<byte[]> dictionary = new ArrayList<>();
+        int[] indices = new int[n];
+        int size = 4 + 4 * n;
+        for (int r = 0; r < n; r += 1) {
+            int code = (int) key(r);
+            Integer index = local.get(code);
+            if (index == null) {
+                index = dictionary.size();
+                local.put(code, index);
+                byte[] bytes = StringPool.value(code).getBytes(UTF_8);
+                dictionary.add(bytes);
+                size += 4 + bytes.length;
+            }
+            indices[r] = index;
+        }
+        ByteBuffer section = ByteBuffer.allocate(size);
+        section.putInt(dictionary.size());
+        for (byte[] bytes : dictionary) {
+            section.putInt(bytes.length);
+            section.put(bytes);
+        }
+        section.asIntBuffer().put(indices);
+        section.clear();
+        return section;
+    }
+
+    @Override
+    int capacity() {
+        return _codes.length;
+    }
+
+    @Override
+    void grow(int n) {
+        _codes = Arrays.copyOf(_codes, n);
+    }
+
+    @Override
+    void set(int r, long key) {
+        _codes[r] = (int) key;
+    }
+
+    /** {@inheritDoc}  Translates dictionary indices into StringPool
+     *  codes. */
+    @Override
+    void decode(ByteBuffer section, int size) {
+        int[] translation = new int[section.getInt()];
+        for (int i = 0; i < translation.length; i += 1) {
+            byte[] bytes = new byte[section.getInt()];
+            section.get(bytes);
+            translation[i] = StringPool.code(new String(bytes, UTF_8));
+        }
+        int[] codes = new int[Math.max(INITIAL_CAPACITY, size)];
+        section.asIntBuffer().get(codes, 0, size);
+        for (int r = 0; r < size; r += 1) {
+            codes[r] = translation[codes[r]];
+        }
+        _codes = codes;
+    }
+
+    /** StringPool codes of my values. */
+    private volatile int[] _codes;
+}
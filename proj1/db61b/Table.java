@@ -1,7 +1,10 @@
 package db61b;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -9,16 +12,56 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static db61b.Utils.*;
 
-/** A single table in a database.
+/** A single table in a database.  Values are stored by column: each
+ *  column is a ColumnVector indexed by row number, so that a scan
+ *  touching a few columns reads only their arrays.  Rows are numbered
+ *  0 .. size()-1 in order of insertion.
+ *
+ *  Rows are only added (or all removed by clear), so a reader sees a
+ *  consistent snapshot of a table by recording its size, columns, and
+ *  indexes, as a TableIterator does, and reading only the rows below
+ *  that size.  Changes are made under my lock, which taking a snapshot
+ *  holds only briefly; readers then proceed without locking, and never
+ *  delay writers.
  *  @author Chen Meng. */
 class Table implements Iterable<Row> {
+
+    /** Initial number of hash slots for duplicate detection.  Must be a
+     *  power of two. */
+    private static final int INITIAL_SLOTS = 32;
+
+    /** Starting value and multiplier of row fingerprints (the 64-bit
+     *  golden ratio, and an odd constant from MurmurHash3). */
+    private static final long
+        FINGERPRINT_SEED = 0x9E3779B97F4A7C15L,
+        FINGERPRINT_MULTIPLIER = 0xFF51AFD7ED558CCDL;
+
     /** A new Table named NAME whose columns are give by COLUMNTITLES,
-     *  which must be distinct (else exception thrown). */
+     *  which must be distinct (else exception thrown), and hold strings. */
     Table(String name, String[] columnTitles) {
+        this(name, columnTitles, (Type[]) null);
+    }
+
+    /** A new Table named NAME whose columns are give by COLUMNTITLES,
+     *  which must be distinct (else exception thrown), and hold values
+     *  of the corresponding TYPES.  If TYPES is null, all columns hold
+     *  strings. */
+    Table(String name, String[] columnTitles, Type[] types) {
+        this(name, columnTitles, types, false);
+    }
+
+    /** A new Table as for Table(NAME, COLUMNTITLES, TYPES) that, if BAG,
+     *  keeps duplicate rows: adding a row never looks for an equal one.
+     *  Bags hold intermediate results whose rows are known to be
+     *  distinct, or need not be. */
+    Table(String name, String[] columnTitles, Type[] types, boolean bag) {
         _name = name;
+        _bag = bag;
         _titles = columnTitles;
         HashSet<String> columndup =
             new HashSet<String>(Arrays.asList(columnTitles));
@@ -27,6 +70,15 @@ class Table implements Iterable<Row> {
         if (lengthA != lengthP) {
             throw error("Column names must be distinct!");
         }
+        _columns = new ColumnVector[lengthP];
+        for (int c = 0; c < lengthP; c += 1) {
+            _columns[c] =
+                ColumnVector.create(types == null ? Type.STRING : types[c]);
+        }
+        if (!bag) {
+            _fingerprints = new long[INITIAL_SLOTS / 2];
+            _slots = new int[INITIAL_SLOTS];
+        }
     }
 
     /** A new Table named NAME whose column names are give by COLUMNTITLES. */
@@ -34,6 +86,31 @@ class Table implements Iterable<Row> {
         this(name, columnTitles.toArray(new String[columnTitles.size()]));
     }
 
+    /** A new Table named NAME with column titles COLUMNTITLES, whose
+     *  rows are the first SIZE values of COLUMNS, which must form
+     *  distinct rows.  The structure that detects duplicate rows is
+     *  only built once another row is added, so that a table read from
+     *  a file need not touch its columns until they are used. */
+    Table(String name, String[] columnTitles, ColumnVector[] columns,
+          int size) {
+        this(name, columnTitles);
+        _columns = columns;
+        _size = size;
+        _fingerprints = null;
+        _slots = null;
+    }
+
+    /** A new Table named NAME holding the columns and rows of QUERY. */
+    Table(String name, Query query) {
+        this(name, query.titles().toArray(new String[0]), query.types());
+        query.keepDuplicates();
+        query.open();
+        for (Row r = query.next(); r != null; r = query.next()) {
+            add(r);
+        }
+        query.close();
+    }
+
     /** Return the number of columns in this table. */
     int numColumns() {
         return _titles.length;
@@ -49,10 +126,74 @@ class Table implements Iterable<Row> {
         return new TableIterator(this);
     }
 
-    /** Returns an iterator that returns my rows in an unspecfied order. */
+    /** Returns an iterator that returns my rows in an unspecfied order.
+     *  Each Row is assembled from my columns as it is returned. */
     @Override
     public Iterator<Row> iterator() {
-        return rows.iterator();
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return _next < _size;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                _next += 1;
+                return row(_next - 1);
+            }
+
+            /** Number of the next row to return. */
+            private int _next;
+        };
+    }
+
+    /** Return the value of column C in row R.  Requires
+     *  0 <= C < numColumns() and 0 <= R < size(). */
+    String get(int r, int c) {
+        return _columns[c].get(r);
+    }
+
+    /** Return the Type of the values in my Cth column. */
+    Type type(int c) {
+        return _columns[c].type();
+    }
+
+    /** Return the storage for my Cth column. */
+    ColumnVector column(int c) {
+        return _columns[c];
+    }
+
+    /** Return the Index on my Cth column, or null if there is none. */
+    Index index(int c) {
+        for (Index index : _indexes) {
+            if (index.column() == c) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /** Create an Index on my Cth column, if there is not one already,
+     *  and return it. */
+    synchronized Index createIndex(int c) {
+        Index index = index(c);
+        if (index == null) {
+            index = new Index(this, c);
+            _indexes.add(index);
+        }
+        return index;
+    }
+
+    /** Return a new Row holding the values in my row R. */
+    Row row(int r) {
+        String[] data = new String[_columns.length];
+        for (int c = 0; c < data.length; c += 1) {
+            data[c] = _columns[c].get(r);
+        }
+        return new Row(data);
     }
 
     /** Return the title of the Kth column.  Requires 0 <= K < columns(). */
@@ -73,22 +214,256 @@ class Table implements Iterable<Row> {
 
     /** Return the number of Rows in this table. */
     int size() {
-        return rows.size();
+        return _size;
     }
 
     /** Add ROW to THIS if no equal row already exists.  Return true if anything
-     *  was added, false otherwise. */
+     *  was added, false otherwise.  Each value of ROW must denote a value
+     *  of its column's Type (else exception thrown). */
     boolean add(Row row) {
-        if (numColumns() == row.size()) {
-            return rows.add(row);
-        } else {
+        if (numColumns() != row.size()) {
             throw error("inserted row has wrong length");
         }
+        long[] keys = new long[_columns.length];
+        for (int c = 0; c < keys.length; c += 1) {
+            keys[c] = _columns[c].keyOf(row.get(c));
+        }
+        return add(keys);
+    }
+
+    /** Add the row whose values have the keys KEYS (as defined by
+     *  ColumnVector) to THIS if no equal row already exists.  Return
+     *  true if anything was added, false otherwise.  KEYS must have one
+     *  element per column. */
+    boolean add(long[] keys) {
+        return addAll(keys, 0, 1) == 1;
+    }
+
+    /** Add rows numbered FIRST .. FIRST+N-1 of KEYS, which holds the
+     *  keys of the values of successive rows, one after the other,
+     *  skipping those equal to a row already present unless I am a bag.
+     *  Return the number added.  Storage is grown and my lock taken once
+     *  for all N rows. */
+    synchronized int addAll(long[] keys, int first, int n) {
+        int width = _columns.length;
+        if (_bag) {
+            for (int k = first * width; k < (first + n) * width; k += width) {
+                append(keys, k);
+            }
+            _version += n > 0 ? 1 : 0;
+            return n;
+        }
+        if (_slots == null) {
+            buildSlots();
+        }
+        if (_size + n > _fingerprints.length) {
+            _fingerprints =
+                Arrays.copyOf(_fingerprints,
+                              Math.max(_size + n, 2 * _fingerprints.length));
+        }
+        int slots;
+        for (slots = _slots.length; 2 * (_size + n) > slots; slots *= 2) {
+            continue;
+        }
+        if (slots > _slots.length) {
+            rehash(slots);
+        }
+        int added;
+        added = 0;
+        for (int i = 0, k = first * width; i < n; i += 1, k += width) {
+            long fingerprint = fingerprint(keys, k);
+            int s = slot(fingerprint, keys, k);
+            if (_slots[s] != 0) {
+                continue;
+            }
+            _fingerprints[_size] = fingerprint;
+            _slots[s] = _size + 1;
+            append(keys, k);
+            added += 1;
+        }
+        if (added > 0) {
+            _version += 1;
+        }
+        return added;
+    }
+
+    /** Return the numbers of those of rows 0 .. N-1 of KEYS, laid out as
+     *  for addAll, that addAll would now add: unless I am a bag, those
+     *  equal neither to a row present nor to an earlier one of them. */
+    synchronized int[] newRows(long[] keys, int n) {
+        int width = _columns.length;
+        int[] result = new int[n];
+        int count;
+        count = 0;
+        if (_bag) {
+            for (; count < n; count += 1) {
+                result[count] = count;
+            }
+            return result;
+        }
+        if (_slots == null) {
+            buildSlots();
+        }
+        Type[] types = new Type[width];
+        for (int c = 0; c < width; c += 1) {
+            types[c] = _columns[c].type();
+        }
+        Table seen = new Table("", _titles, types);
+        for (int i = 0, k = 0; i < n; i += 1, k += width) {
+            int s = slot(fingerprint(keys, k), keys, k);
+            if (_slots[s] == 0 && seen.addAll(keys, i, 1) == 1) {
+                result[count] = i;
+                count += 1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** Return the number of the slot in _slots that holds my row whose
+     *  values have the keys KEYS[K .. K+numColumns()-1] and whose
+     *  fingerprint is FINGERPRINT, or the empty slot where it belongs if
+     *  there is no such row. */
+    private int slot(long fingerprint, long[] keys, int k) {
+        int mask = _slots.length - 1;
+        int s;
+        for (s = (int) fingerprint & mask; _slots[s] != 0;
+             s = (s + 1) & mask) {
+            int r = _slots[s] - 1;
+            if (_fingerprints[r] == fingerprint && sameRow(r, keys, k)) {
+                break;
+            }
+        }
+        return s;
+    }
+
+    /** Append the row whose values have the keys KEYS[K ..
+     *  K+numColumns()-1], and tell my indexes. */
+    private void append(long[] keys, int k) {
+        for (int c = 0; c < _columns.length; c += 1) {
+            _columns[c].appendKey(keys[k + c]);
+        }
+        _size += 1;
+        for (Index index : _indexes) {
+            index.add(_size - 1);
+        }
+    }
+
+    /** Remove all my rows.  My indexes remain, covering no rows.  The
+     *  columns and indexes are replaced rather than emptied, so
+     *  snapshots taken before remain intact. */
+    synchronized void clear() {
+        ColumnVector[] columns = new ColumnVector[_columns.length];
+        for (int c = 0; c < columns.length; c += 1) {
+            columns[c] = ColumnVector.create(_columns[c].type());
+        }
+        CopyOnWriteArrayList<Index> indexes = new CopyOnWriteArrayList<>();
+        _columns = columns;
+        _size = 0;
+        _fingerprints = _bag ? null : new long[INITIAL_SLOTS / 2];
+        _slots = _bag ? null : new int[INITIAL_SLOTS];
+        for (Index index : _indexes) {
+            indexes.add(new Index(this, index.column()));
+        }
+        _indexes = indexes;
+        _version += 1;
+    }
+
+    /** Return my current columns, for a snapshot. */
+    ColumnVector[] columns() {
+        return _columns;
+    }
+
+    /** Return my current indexes, for a snapshot. */
+    List<Index> indexes() {
+        return _indexes;
+    }
+
+    /** Return my version: the number of times my rows have changed. */
+    long version() {
+        return _version;
+    }
+
+    /** Return the materialized Views whose select clauses read me. */
+    CopyOnWriteArrayList<View> dependents() {
+        return _dependents;
+    }
+
+    /** Return the materialized View whose rows I hold, or null if I am
+     *  an ordinary table. */
+    View view() {
+        return _view;
+    }
+
+    /** Make me the table holding the rows of VIEW. */
+    void setView(View view) {
+        _view = view;
+    }
+
+    /** Return true iff my row R has the values whose keys are
+     *  KEYS[K .. K+numColumns()-1]. */
+    private boolean sameRow(int r, long[] keys, int k) {
+        for (int c = 0; c < _columns.length; c += 1) {
+            if (_columns[c].key(r) != keys[k + c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the fingerprint of the row whose values have the keys
+     *  KEYS[K .. K+numColumns()-1]: a 64-bit hash in which every bit
+     *  depends on every key, so that its low bits choose a slot and
+     *  unequal rows almost never share all 64 bits. */
+    private long fingerprint(long[] keys, int k) {
+        long result = FINGERPRINT_SEED;
+        for (int c = 0; c < _columns.length; c += 1) {
+            result = (result ^ keys[k + c]) * FINGERPRINT_MULTIPLIER;
+            result ^= result >>> 29;
+        }
+        result *= FINGERPRINT_MULTIPLIER;
+        return result ^ (result >>> 32);
+    }
+
+    /** Compute _fingerprints and _slots for the rows already present. */
+    private void buildSlots() {
+        _fingerprints = new long[Math.max(INITIAL_SLOTS / 2, 2 * _size)];
+        long[] keys = new long[_columns.length];
+        for (int r = 0; r < _size; r += 1) {
+            for (int c = 0; c < keys.length; c += 1) {
+                keys[c] = _columns[c].key(r);
+            }
+            _fingerprints[r] = fingerprint(keys, 0);
+        }
+        int n;
+        for (n = INITIAL_SLOTS; n <= 2 * _size; n *= 2) {
+            continue;
+        }
+        rehash(n);
+    }
+
+    /** Replace _slots with an array of N slots, reinserting all rows. */
+    private void rehash(int n) {
+        _slots = new int[n];
+        int mask = _slots.length - 1;
+        for (int r = 0; r < _size; r += 1) {
+            int s;
+            for (s = (int) _fingerprints[r] & mask; _slots[s] != 0;
+                 s = (s + 1) & mask) {
+                continue;
+            }
+            _slots[s] = r + 1;
+        }
     }
 
     /** Read the contents of the file NAME.db, and return as a Table.
-     *  Format errors in the .db file cause a DBException. */
+     *  Format errors in the .db file cause a DBException.  Large files
+     *  are parsed in parallel by a ParallelReader. */
     static Table readTable(String name) {
+        File file = new File(name + ".db");
+        if (file.length() >= ParallelReader.MIN_PARALLEL_SIZE
+            && file.length() <= Integer.MAX_VALUE) {
+            return ParallelReader.read(name);
+        }
         BufferedReader input;
         Table table;
         input = null;
@@ -121,7 +496,8 @@ class Table implements Iterable<Row> {
         return table;
     }
 
-    /** Write the contents of TABLE into the file NAME.db. Any I/O errors
+    /** Write the contents of TABLE into the file NAME.db, through a
+     *  temporary file that replaces it in one step. Any I/O errors
      *  cause a DBException. */
     void writeTable(String name) {
         PrintStream output;
@@ -129,19 +505,27 @@ class Table implements Iterable<Row> {
         try {
             String sep;
             sep = ",";
-            output = new PrintStream(name + ".db");
+            FileOutputStream file = new FileOutputStream(name + ".db.tmp");
+            output = new PrintStream(new BufferedOutputStream(file));
             output.print(_titles[0]);
             for (int i = 1; i < _titles.length; i += 1) {
                 output.print(sep + _titles[i]);
             }
             output.println();
-            for (Row r: rows) {
-                output.print(r.get(0));
-                for (int i = 1; i < r.size(); i += 1) {
-                    output.print(sep + r.get(i));
+            for (int r = 0; r < _size; r += 1) {
+                output.print(get(r, 0));
+                for (int i = 1; i < _columns.length; i += 1) {
+                    output.print(sep + get(r, i));
                 }
                 output.println();
             }
+            output.flush();
+            if (output.checkError()) {
+                throw new IOException();
+            }
+            file.getChannel().force(true);
+            output.close();
+            replaceFile(name + ".db.tmp", name + ".db");
         } catch (IOException e) {
             throw error("trouble writing to %s.db", name);
         } finally {
@@ -154,20 +538,61 @@ class Table implements Iterable<Row> {
     /** Print my contents on the standard output, separated by spaces
      *  and indented by two spaces. */
     void print() {
-        for (Row r : rows) {
-            System.out.print(" ");
-            for (int i = 0; i < r.size(); i += 1) {
-                System.out.print(" " + r.get(i));
+        print(System.out);
+    }
+
+    /** Print my contents on OUTPUT as print() does, as of a snapshot
+     *  taken at the start. */
+    void print(PrintStream output) {
+        TableIterator it = tableIterator();
+        for (int r = 0; r < it.size(); r += 1) {
+            it.setRow(r);
+            output.print(" ");
+            for (int i = 0; i < _titles.length; i += 1) {
+                output.print(" " + it.value(i));
             }
-            System.out.println();
+            output.println();
+        }
+    }
+
+    /** Print ROW on OUTPUT as print() prints each of my rows. */
+    static void print(Row row, PrintStream output) {
+        output.print(" ");
+        for (int i = 0; i < row.size(); i += 1) {
+            output.print(" " + row.get(i));
         }
+        output.println();
     }
 
     /** My name. */
     private final String _name;
     /** My column titles. */
     private String[] _titles;
-    /** My rows. */
-    private HashSet<Row> rows = new HashSet<Row>();
+    /** My columns' values. */
+    private volatile ColumnVector[] _columns;
+    /** Number of rows.  Set after a row's values are stored, which this
+     *  publishes to readers. */
+    private volatile int _size;
+    /** Number of changes to my rows. */
+    private volatile long _version;
+    /** Row fingerprints, computed once from the keys of the rows'
+     *  values and indexed by row number.  Null, as is _slots, until
+     *  needed, and in a bag. */
+    private long[] _fingerprints;
+    /** True iff I keep duplicate rows. */
+    private final boolean _bag;
+    /** Indexes on my columns. */
+    private volatile CopyOnWriteArrayList<Index> _indexes =
+        new CopyOnWriteArrayList<>();
+    /** The materialized Views that read me. */
+    private final CopyOnWriteArrayList<View> _dependents =
+        new CopyOnWriteArrayList<>();
+    /** The View whose rows I hold, or null. */
+    private View _view;
+    /** Open-addressing hash table used to reject duplicate rows.  Each
+     *  non-zero entry is one more than the number of a row; a row with
+     *  hash H lives at the first free slot at or after H mod
+     *  _slots.length.  At most half full, so lookups stay short. */
+    private int[] _slots;
 }
 
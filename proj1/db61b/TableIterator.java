@@ -1,11 +1,18 @@
 package db61b;
 
-import java.util.Iterator;
+import java.util.List;
 
 /** An iterator through the rows of a Table.  Rather than providing the
  *  usual Java Iterator interface, a TableIterator acts more like a C++
  *  STL iterator: at any given time, there is a notion of the current
- *  Row and a separate method to proceed to the next.
+ *  Row and a separate method to proceed to the next.  Rows are
+ *  designated by their numbers within the Table, so no Row objects
+ *  are created; values are read directly from the Table's columns.
+ *
+ *  A TableIterator reads a snapshot of its Table, taken when it is
+ *  created and again by snapshot(): the rows present then, through the
+ *  columns and indexes the Table had then.  Rows added later, by this
+ *  or other threads, are invisible to it until the next snapshot.
  *  @author Chen Meng.
  */
 class TableIterator {
@@ -13,19 +20,49 @@ class TableIterator {
     /** An STL-style iterator through the rows of TABLE. */
     TableIterator(Table table) {
         _table = table;
+        snapshot();
         reset();
     }
 
-    /** Reinitialize me to the first row.
-     *  Uses _table.iterator()
-     *  Revised*/
-    void reset() {
-        _source = _table.iterator();
-        if (_source.hasNext()) {
-            _row = _source.next();
-        } else {
-            _row = null;
+    /** Make the current contents of my Table the ones I read. */
+    void snapshot() {
+        synchronized (_table) {
+            _size = _table.size();
+            _version = _table.version();
+            _columns = _table.columns();
+            _indexes = _table.indexes();
+        }
+    }
+
+    /** Return the number of rows of my Table in my snapshot. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the version of my Table in my snapshot. */
+    long version() {
+        return _version;
+    }
+
+    /** Return the storage for column #K of my Table in my snapshot. */
+    ColumnVector column(int k) {
+        return _columns[k];
+    }
+
+    /** Return the Index on column #K of my Table in my snapshot, or null
+     *  if there is none.  It may cover rows beyond my snapshot. */
+    Index index(int k) {
+        for (Index index : _indexes) {
+            if (index.column() == k) {
+                return index;
+            }
         }
+        return null;
+    }
+
+    /** Reinitialize me to the first row. */
+    void reset() {
+        _row = 0;
     }
 
     /** Return the Table over which I am iterating. */
@@ -36,21 +73,28 @@ class TableIterator {
     /** Return true iff there is a current Row (that is, we have not
      *  exhausted the iterator). */
     boolean hasRow() {
-        return _row != null;
+        return _row < _size;
     }
 
     /** Proceed to the next row.  Assumes that hasRow() is true.  Return
-     *  the new value of hasRow().
-     *  Revised*/
-    Row next() {
-        if (_source.hasNext()) {
-            _row = _source.next();
-        } else {
-            _row = null;
-        }
+     *  the new value of hasRow(). */
+    boolean next() {
+        _row += 1;
+        return hasRow();
+    }
+
+    /** Return the number of the current row within my Table. */
+    int row() {
         return _row;
     }
 
+    /** Make row number ROW of my Table the current row.  This lets a
+     *  join position me on a row found by other means than iteration;
+     *  a later next() proceeds to row ROW + 1. */
+    void setRow(int row) {
+        _row = row;
+    }
+
     /** Return the index of column NAME in my Table, or -1 if there is no
      *  such column. */
     int columnIndex(String name) {
@@ -62,15 +106,30 @@ class TableIterator {
         if (!hasRow()) {
             throw new IllegalStateException("Past the last row.");
         }
-        return _row.get(k);
+        return _columns[k].get(_row);
+    }
+
+    /** Return the key (as defined by ColumnVector) of the value of
+     *  column #K in the current row. */
+    long key(int k) {
+        if (!hasRow()) {
+            throw new IllegalStateException("Past the last row.");
+        }
+        return _columns[k].key(_row);
     }
 
     /** My table. */
     private final Table _table;
-    /** The current Row of my Table, or null if there are no more. */
-    private Row _row;
-    /** The source of row data from _table.iterator()
-     *  Revised. */
-    private Iterator<Row> _source;
+    /** Number of rows of _table in my snapshot. */
+    private int _size;
+    /** Version of _table in my snapshot. */
+    private long _version;
+    /** Columns of _table in my snapshot. */
+    private ColumnVector[] _columns;
+    /** Indexes of _table in my snapshot. */
+    private List<Index> _indexes;
+    /** The number of the current row of my Table.  There is no current
+     *  row once this reaches the size of my snapshot. */
+    private int _row;
 
 }
@@ -1,44 +1,83 @@
 package db61b;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.List;
 
 import static db61b.Utils.*;
 
-/** Represents a stream of db61b tokens read from a given Scanner.
+/** Represents a stream of db61b tokens read from a given Reader.
+ *
+ *  Tokens are recognized by hand, a character at a time, from a buffer
+ *  refilled from the Reader as needed, rather than with regular
+ *  expressions.  The tokens are valid or unterminated literals
+ *  ('...', containing no comma, quote, or end of line), identifiers
+ *  (an ASCII letter or underscore followed by ASCII letters, digits,
+ *  and underscores), relation symbols (=, <=, >=, and !=), valid or
+ *  unterminated comments (as in C), ends of line, and any other single
+ *  non-whitespace character.  Reserved words and one-character
+ *  tokens are shared constant strings, so only other identifiers and
+ *  literals are copied out of the buffer.
  *  @author P. N. Hilfinger. */
 class Tokenizer {
 
-    /** Text of regular expressions that represent literals (possibly
-     *  unterminated), identifiers, and comments (possibly
-     *  unterminated). */
-    private static final String
-        LITERAL_TEXT = "'(?:[^,'\n\r]*)'?",
-        IDENTIFIER_TEXT = "[\\p{Alpha}_]\\w*",
-        COMMENT_TEXT = "(?:/\\*.*?\\*/|/\\*.*)";
-    /** Matches potential tokens, including valid or unterminated
-     *  literals, valid or unterminated comments, identifiers,
-     *  relation symbols (=, <, <=, >=, and !=), end-of-line
-     *  sequences, or other single characters.  The pattern matches a
-     *  prefix of any string. */
-    private static final Pattern
-        TOKEN_PATN = mkPatn("(?s)[<>!]?=|%s|%s|%s|\r?\n|\\S",
-                            LITERAL_TEXT, IDENTIFIER_TEXT, COMMENT_TEXT);
-
     /** Patterns matching specific kinds of token.  These are intended
      *  to be used with methods such as CommandInterpreter.name. */
     static final Pattern
-        IDENTIFIER = mkPatn(IDENTIFIER_TEXT),
+        IDENTIFIER = mkPatn("[\\p{Alpha}_]\\w*"),
         LITERAL = mkPatn("'.*"),
         RELATION = mkPatn("[<>!]?=|[<>]");
 
-    /** A Tokenizer that reads tokens from S, and prompts on PROMPTER,
-     *  if it is non-null. */
-    Tokenizer(Scanner s, PrintStream prompter) {
-        _input = s;
+    /** The reserved words of db61b, and other words common enough to be
+     *  worth sharing. */
+    private static final String[] WORDS = {
+        "and", "as", "asc", "avg", "binary", "by", "copy", "count",
+        "create", "desc", "double", "exit", "from", "group", "index",
+        "insert", "int", "into", "load", "long", "materialized", "max",
+        "min", "on", "order", "print", "quit", "select", "store", "sum",
+        "table", "values", "view", "where",
+    };
+
+    /** Table of WORDS, by hash code, open-addressed.  Its size is a
+     *  power of two at least twice the number of WORDS. */
+    private static final String[] WORD_TABLE =
+        new String[Integer.highestOneBit(WORDS.length) << 2];
+
+    /** The one-character tokens, indexed by character, for characters
+     *  less than ONE_CHAR_TOKENS.length. */
+    private static final String[] ONE_CHAR_TOKENS = new String[128];
+
+    /** Tokens that are not copied from the input. */
+    private static final String
+        EOF = "*EOF*", NEWLINE = "\n", COMMENT = "/**/",
+        LE = "<=", GE = ">=", NE = "!=";
+
+    static {
+        for (String word : WORDS) {
+            int h = word.hashCode() & (WORD_TABLE.length - 1);
+            while (WORD_TABLE[h] != null) {
+                h = (h + 1) & (WORD_TABLE.length - 1);
+            }
+            WORD_TABLE[h] = word;
+        }
+        for (int c = 0; c < ONE_CHAR_TOKENS.length; c += 1) {
+            ONE_CHAR_TOKENS[c] = String.valueOf((char) c).intern();
+        }
+    }
+
+    /** Initial size of the character buffer. */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /** A Tokenizer that reads tokens from INPUT, and prompts on
+     *  PROMPTER, if it is non-null. */
+    Tokenizer(Reader input, PrintStream prompter) {
+        _input = input;
+        _chars = new char[BUFFER_SIZE];
         _buffer = new ArrayList<>();
         _prompter = prompter;
         _continued = false;
@@ -52,21 +91,17 @@ class Tokenizer {
      *  Throws DBException on encountering a lexical error (such as an
      *  unterminated literal). */
     private void readToken() {
+        if (_pending != null) {
+            DBException error = _pending;
+            _pending = null;
+            throw error;
+        }
         while (true) {
             prompt();
-            String token = _input.findWithinHorizon(TOKEN_PATN, 0);
-            if (token == null) {
-                token = "*EOF*";
-            } else if (token.startsWith("'")) {
-                if (token.length() == 1 || !token.endsWith("'")) {
-                    throw error("unterminated literal constant");
-                }
-            } else if (token.startsWith("/*")) {
-                if (token.length() < 4 || !token.endsWith("*/")) {
-                    throw error("unterminated comment");
-                }
+            String token = scan();
+            if (token == COMMENT) {
                 continue;
-            } else if (token.endsWith("\n")) {
+            } else if (token == NEWLINE) {
                 _shouldPrompt = true;
                 continue;
             }
@@ -76,6 +111,150 @@ class Tokenizer {
         }
     }
 
+    /** Read past and return the next potential token: EOF at the end of
+     *  input, NEWLINE for an end of line, or COMMENT for a comment.
+     *  Skips other whitespace.  Throws DBException on an unterminated
+     *  literal or comment, having read past it. */
+    private String scan() {
+        char c;
+        while (true) {
+            if (!available(0)) {
+                return EOF;
+            }
+            c = _chars[_pos];
+            if (c == '\n') {
+                _pos += 1;
+                return NEWLINE;
+            } else if (c == '\r' && available(1) && _chars[_pos + 1] == '\n') {
+                _pos += 2;
+                return NEWLINE;
+            } else if (!isSpace(c)) {
+                break;
+            }
+            _pos += 1;
+        }
+
+        if (c == '\'') {
+            int k;
+            for (k = 1; available(k); k += 1) {
+                char d = _chars[_pos + k];
+                if (d == ',' || d == '\n' || d == '\r') {
+                    break;
+                } else if (d == '\'') {
+                    return take(k + 1);
+                }
+            }
+            _pos += k;
+            throw error("unterminated literal constant");
+        } else if (isWordStart(c)) {
+            int k;
+            for (k = 1; available(k) && isWordPart(_chars[_pos + k]); k += 1) {
+                continue;
+            }
+            return take(k);
+        } else if (c == '/' && available(1) && _chars[_pos + 1] == '*') {
+            for (int k = 2; available(k + 1); k += 1) {
+                if (_chars[_pos + k] == '*' && _chars[_pos + k + 1] == '/') {
+                    _pos += k + 2;
+                    return COMMENT;
+                }
+            }
+            _pos = _limit;
+            throw error("unterminated comment");
+        } else if ((c == '<' || c == '>' || c == '!')
+                   && available(1) && _chars[_pos + 1] == '=') {
+            _pos += 2;
+            return c == '<' ? LE : c == '>' ? GE : NE;
+        } else if (c < ONE_CHAR_TOKENS.length) {
+            _pos += 1;
+            return ONE_CHAR_TOKENS[c];
+        } else if (Character.isHighSurrogate(c) && available(1)
+                   && Character.isLowSurrogate(_chars[_pos + 1])) {
+            return take(2);
+        } else {
+            return take(1);
+        }
+    }
+
+    /** Return true iff C is skipped between tokens (ends of line aside):
+     *  a space, tab, vertical tab, form feed, or carriage return. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\u000B' || c == '\f'
+            || c == '\r';
+    }
+
+    /** Return true iff C may start an identifier. */
+    private static boolean isWordStart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+    }
+
+    /** Return true iff C may continue an identifier. */
+    private static boolean isWordPart(char c) {
+        return isWordStart(c) || c >= '0' && c <= '9';
+    }
+
+    /** Read past and return the next LEN characters of input, which are
+     *  in _chars, as a reserved word if they spell one. */
+    private String take(int len) {
+        int h = 0;
+        for (int i = _pos; i < _pos + len; i += 1) {
+            h = 31 * h + _chars[i];
+        }
+        for (h &= WORD_TABLE.length - 1; WORD_TABLE[h] != null;
+             h = (h + 1) & (WORD_TABLE.length - 1)) {
+            if (spells(WORD_TABLE[h], len)) {
+                _pos += len;
+                return WORD_TABLE[h];
+            }
+        }
+        String token = new String(_chars, _pos, len);
+        _pos += len;
+        return token;
+    }
+
+    /** Return true iff the next LEN characters in _chars spell WORD. */
+    private boolean spells(String word, int len) {
+        if (word.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i += 1) {
+            if (word.charAt(i) != _chars[_pos + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff the input has a character K characters past the
+     *  current position, reading more input into _chars as needed.  The
+     *  characters before _pos may be discarded. */
+    private boolean available(int k) {
+        while (_pos + k >= _limit) {
+            if (_atEnd) {
+                return false;
+            }
+            if (_pos > 0) {
+                System.arraycopy(_chars, _pos, _chars, 0, _limit - _pos);
+                _limit -= _pos;
+                _pos = 0;
+            }
+            if (_limit == _chars.length) {
+                _chars = Arrays.copyOf(_chars, 2 * _chars.length);
+            }
+            try {
+                int n = _input.read(_chars, _limit, _chars.length - _limit);
+                if (n < 0) {
+                    _atEnd = true;
+                } else {
+                    _limit += n;
+                }
+            } catch (IOException e) {
+                _atEnd = true;
+            }
+        }
+        return true;
+    }
+
     /** Print an appropriate prompt, if there is a prompter: either ">"
      *  when expecting the start of a new command, or "..."
      *  otherwise. */
@@ -142,6 +321,15 @@ class Tokenizer {
      *  encountering a lexical error. */
     boolean nextIs(Pattern p) {
         String token = peek();
+        if (p == IDENTIFIER) {
+            return isWordStart(token.charAt(0));
+        } else if (p == LITERAL) {
+            return token.charAt(0) == '\'';
+        } else if (p == RELATION) {
+            return token == LE || token == GE || token == NE
+                || token.equals("=") || token.equals("<")
+                || token.equals(">");
+        }
         return _mat.usePattern(p).reset(token).matches();
     }
 
@@ -155,6 +343,7 @@ class Tokenizer {
     /** Return and read past the next token. */
     String next() {
         if (_k == _buffer.size()) {
+            discard();
             readToken();
         }
         _k += 1;
@@ -163,17 +352,60 @@ class Tokenizer {
 
     /** Returns the next token without changing the position of THIS. */
     String peek() {
+        if (_k == _buffer.size()) {
+            discard();
+        }
         while (_k >= _buffer.size()) {
             readToken();
         }
         return _buffer.get(_k);
     }
 
+    /** Forget the tokens already read past, which are never needed
+     *  again. */
+    private void discard() {
+        _buffer.clear();
+        _k = 0;
+    }
+
+    /** Return the tokens from the next one through the next ";", or
+     *  through the end of input if there is none, without changing the
+     *  position of THIS.  Returns null if there is a lexical error
+     *  first, which is then thrown when the token stream reaches it, so
+     *  that errors are reported in the same order as without peeking. */
+    List<String> peekStatement() {
+        int k;
+        for (k = _k; true; k += 1) {
+            while (k >= _buffer.size()) {
+                try {
+                    readToken();
+                } catch (DBException e) {
+                    _pending = e;
+                    return null;
+                }
+            }
+            String token = _buffer.get(k);
+            if (token.equals(";") || token.equals("*EOF*")) {
+                break;
+            }
+        }
+        return new ArrayList<>(_buffer.subList(_k, k + 1));
+    }
+
     /** Matcher used for pattern matching. */
     private Matcher _mat;
     /** The character input source. */
-    private Scanner _input;
-    /** All tokens read since the last flush or beginning of input. */
+    private Reader _input;
+    /** Characters read from _input. */
+    private char[] _chars;
+    /** Position in _chars of the next character to scan. */
+    private int _pos;
+    /** Number of characters in _chars. */
+    private int _limit;
+    /** True iff _input has no more characters. */
+    private boolean _atEnd;
+    /** The tokens read since the last one read past, and possibly
+     *  some before them. */
     private ArrayList<String> _buffer;
     /** Output for prompts.  Null if prompts not used. */
     private PrintStream _prompter;
@@ -181,6 +413,9 @@ class Tokenizer {
     private boolean _continued;
     /** True iff prompt is needed for the next token. */
     private boolean _shouldPrompt;
+    /** A lexical error found by peekStatement in the token after those
+     *  in _buffer, or null. */
+    private DBException _pending;
     /** Current position in the token stream as an offset within _buffer. */
     private int _k;
 }
@@ -0,0 +1,48 @@
+package db61b;
+
+import static db61b.Utils.*;
+
+/** The types of values a column may hold.  Columns are of type STRING
+ *  unless declared otherwise when their table is created.
+ *  @author Chen Meng. */
+enum Type {
+    /** Arbitrary strings, compared lexicographically. */
+    STRING,
+    /** 32-bit integers. */
+    INT,
+    /** 64-bit integers. */
+    LONG,
+    /** Double-precision floating-point numbers. */
+    DOUBLE;
+
+    /** Return the Type named NAME (as written in a create statement). */
+    static Type forName(String name) {
+        for (Type type : values()) {
+            if (type.toString().equals(name)) {
+                return type;
+            }
+        }
+        throw error("unknown column type: %s", name);
+    }
+
+    /** Return true iff my values are numbers. */
+    boolean isNumeric() {
+        return this != STRING;
+    }
+
+    /** Return true iff my values are integers. */
+    boolean isIntegral() {
+        return this == INT || this == LONG;
+    }
+
+    /** Return true iff equal values of type OTHER and of my type have
+     *  equal keys (see ColumnVector.key). */
+    boolean sameKeys(Type other) {
+        return this == other || (isIntegral() && other.isIntegral());
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -1,7 +1,12 @@
 package db61b;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.regex.Pattern;
 
+import static java.nio.file.StandardCopyOption.*;
+
 /** Various utilities used by other sources.
  *  @author P. N. Hilfinger
  */
@@ -25,6 +30,14 @@ class Utils {
         return new DBException(format(s, args));
     }
 
+    /** Replace the file TARGET with the file TEMP, whose contents must
+     *  already be forced to disk, in one step: after a crash, TARGET
+     *  holds either its old contents or all of its new ones. */
+    static void replaceFile(String temp, String target) throws IOException {
+        Files.move(Paths.get(temp), Paths.get(target),
+                   ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
 }
 
 
@@ -0,0 +1,154 @@
+package db61b;
+
+import java.util.List;
+
+/** A materialized view: a Table holding the rows of a select clause,
+ *  kept current as rows are inserted into the tables the select reads.
+ *
+ *  Rows are only ever added to tables, and tables are sets, so the rows
+ *  that a select gains when rows are added to table T are the rows it
+ *  produces with T restricted to the new rows (once for each mention of
+ *  T, the others reading all of T).  Adding these to the view leaves it
+ *  equal to the select computed from scratch.  The new rows form the
+ *  small side of each join, and creating a view builds Indexes on the
+ *  columns its equality conditions join on, so the Planner looks up
+ *  their matches with IndexJoinPlans: keeping the view current costs in
+ *  proportion to the new rows and their matches, not to the size of the
+ *  tables.
+ *
+ *  A grouped view's rows change rather than accumulate, so it is
+ *  instead recomputed, as are all views that read it.
+ *
+ *  Views are created and brought up to date one at a time, under a
+ *  lock on the View class.  A row is added to its table before its
+ *  Views are updated, so of two rows inserted at once into tables that
+ *  a View joins, the second update sees both, and no match is lost.
+ *  @author Chen Meng. */
+class View {
+
+    /** A view named NAME holding the values of COLUMNS for the tuples
+     *  from the tables of ITERATORS that satisfy CONDITIONS, grouped by
+     *  GROUPBY, or not grouped if GROUPBY is null.  The Columns must be
+     *  resolved against ITERATORS.  Computes my rows. */
+    View(String name, List<Column> columns, List<TableIterator> iterators,
+         List<Condition> conditions, List<Column> groupBy) {
+        _name = name;
+        _columns = columns;
+        _iterators = iterators;
+        _conditions = conditions;
+        _groupBy = groupBy;
+        synchronized (View.class) {
+            _table = new Table(name, query(null, null));
+            _table.setView(this);
+            for (TableIterator it : iterators) {
+                it.table().dependents().addIfAbsent(this);
+            }
+            if (groupBy == null) {
+                indexJoinColumns();
+            }
+        }
+    }
+
+    /** Return the Table holding my rows. */
+    Table table() {
+        return _table;
+    }
+
+    /** Bring the Views that read TABLE up to date after the addition of
+     *  its rows numbered FROM and above. */
+    static synchronized void rowsAdded(Table table, int from) {
+        if (table.size() == from) {
+            return;
+        }
+        for (View view : table.dependents()) {
+            view.update(table, from);
+        }
+    }
+
+    /** Bring me, and the Views that read me, up to date after the
+     *  addition of the rows of SOURCE numbered FROM and above. */
+    private void update(Table source, int from) {
+        if (_groupBy != null) {
+            refresh();
+            return;
+        }
+        int[] rows = new int[source.size() - from];
+        for (int i = 0; i < rows.length; i += 1) {
+            rows[i] = from + i;
+        }
+        int size = _table.size();
+        for (TableIterator it : _iterators) {
+            if (it.table() == source) {
+                add(query(it, rows));
+            }
+        }
+        rowsAdded(_table, size);
+    }
+
+    /** Recompute my rows from scratch, and then those of the Views that
+     *  read me. */
+    private void refresh() {
+        _table.clear();
+        add(query(null, null));
+        for (View view : _table.dependents()) {
+            view.refresh();
+        }
+    }
+
+    /** Return a Query for my rows, or, if IT is not null, for those of
+     *  my rows that come from tuples whose row of IT's table is one of
+     *  ROWS. */
+    private Query query(TableIterator it, int[] rows) {
+        for (TableIterator source : _iterators) {
+            source.snapshot();
+        }
+        Planner planner = new Planner(_iterators, _conditions);
+        if (it != null) {
+            planner.restrict(it, rows);
+        }
+        Plan plan = planner.plan();
+        if (_groupBy == null) {
+            return new Query(_name, _columns, plan);
+        }
+        AggregatePlan groups = new AggregatePlan(plan, _groupBy, _columns);
+        return new Query(_name, groups.columns(), groups);
+    }
+
+    /** Add the rows of QUERY to my table, which drops duplicates
+     *  itself. */
+    private void add(Query query) {
+        query.keepDuplicates();
+        query.open();
+        for (Row r = query.next(); r != null; r = query.next()) {
+            _table.add(r);
+        }
+        query.close();
+    }
+
+    /** Create Indexes on the columns related by my equality conditions
+     *  between tables, through which new rows find their matches. */
+    private void indexJoinColumns() {
+        for (Condition c : _conditions) {
+            Column c1 = c.column1(), c2 = c.column2();
+            if (c.isEquality() && c1.source() != null && c2.source() != null
+                && c1.source() != c2.source()
+                && c1.type().sameKeys(c2.type())) {
+                c1.source().table().createIndex(c1.index());
+                c2.source().table().createIndex(c2.index());
+            }
+        }
+    }
+
+    /** My name. */
+    private final String _name;
+    /** The Columns I select. */
+    private final List<Column> _columns;
+    /** Iterators for the tables I select from. */
+    private final List<TableIterator> _iterators;
+    /** The conditions my tuples satisfy. */
+    private final List<Condition> _conditions;
+    /** The Columns I group by, or null if I am not grouped. */
+    private final List<Column> _groupBy;
+    /** The table holding my rows. */
+    private final Table _table;
+}